@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.jenkinsci.plugins.slacknotifier.util.CommitListSummarizer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The commit list of {@link SlackPostBuildNotifier#getCommitList}, for small, large and
+ * huge change sets, with the default limits.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommitListBenchmark {
+
+    private static final int AUTHORS = 25;
+
+    @Param({"10", "1000", "50000"})
+    public int entries;
+
+    private List<ChangeLogSet.Entry> changeSet;
+    private CommitListSummarizer summarizer;
+
+    @Setup
+    public void setUp() {
+        // User needs a running Jenkins to be created, so the authors are mocks
+        User[] authors = new User[AUTHORS];
+        for (int i = 0; i < AUTHORS; i++) {
+            authors[i] = mock(User.class);
+            when(authors[i].getId()).thenReturn("dev" + i);
+            when(authors[i].getDisplayName()).thenReturn("Developer " + i);
+        }
+        changeSet = new ArrayList<ChangeLogSet.Entry>(entries);
+        for (int i = 0; i < entries; i++) {
+            changeSet.add(new Entry("Commit " + i + ": fix <T> handling & tidy up", authors[i % AUTHORS]));
+        }
+        summarizer = new CommitListSummarizer(CommitListSummarizer.DEFAULT_MAX_COMMITS, CommitListSummarizer.DEFAULT_MAX_BYTES);
+    }
+
+    @Benchmark
+    public String summarize() {
+        return summarizer.summarize(changeSet);
+    }
+
+    private static final class Entry extends ChangeLogSet.Entry {
+        private final String msg;
+        private final User author;
+
+        Entry(String msg, User author) {
+            this.msg = msg;
+            this.author = author;
+        }
+
+        @Override
+        public String getMsg() {
+            return msg;
+        }
+
+        @Override
+        public User getAuthor() {
+            return author;
+        }
+
+        @Override
+        public Collection<String> getAffectedPaths() {
+            return Collections.emptyList();
+        }
+    }
+}
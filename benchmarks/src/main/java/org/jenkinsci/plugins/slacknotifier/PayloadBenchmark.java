@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import org.jenkinsci.plugins.slacknotifier.util.SlackPayloadWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload construction done by {@link SlackPostBuildNotifier#perform}, for a direct and a
+ * coalesced message.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadBenchmark {
+
+    private final String channel = "#builds";
+    private final String summary = "Config Management v.1.1.7 - #1209 Success after 54 sec";
+    private final String buildUrl = "https://jenkins.example.com/job/config-management/1209/";
+    private final String commitList = "Changes:\n- Bump version [Jane Doe]\n- Fix the flaky deploy test [John Roe]";
+    private final String githubLink = "https://github.com/example/config-management/commit/9fceb02d0ae598e95dc970b74767f19372d61af8";
+    private final String text = "Deployed to staging, see <https://staging.example.com|staging> @here";
+
+    @Benchmark
+    public String message() {
+        return SlackPostBuildNotifier.toPayload(channel, summary, "#36a64f", "Jenkins Build Successfull",
+                buildUrl, commitList, githubLink, text, null);
+    }
+
+    @Benchmark
+    public String coalescedAttachment() {
+        return SlackPayloadWriter.attachmentJson(summary, "#36a64f", summary, buildUrl, commitList + "\n" + text, true);
+    }
+}
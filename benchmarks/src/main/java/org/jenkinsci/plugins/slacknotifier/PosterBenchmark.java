@@ -0,0 +1,93 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jenkinsci.plugins.slacknotifier.util.SlackPoster;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A full {@link SlackPoster#publish} round trip against a web hook stub on the loopback
+ * interface that answers {@code ok} at once, so the numbers are the plugin's own overhead:
+ * pooling, serialization and circuit breaker bookkeeping.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PosterBenchmark {
+
+    private HttpServer server;
+    private ExecutorService serverThreads;
+    private SlackPoster poster;
+    private String payload;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // posts are logged at FINE; keep a verbose logging configuration out of the measurement
+        Logger.getLogger(SlackPoster.class.getName()).setLevel(java.util.logging.Level.WARNING);
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                InputStream in = exchange.getRequestBody();
+                byte[] buffer = new byte[8192];
+                while (in.read(buffer) >= 0) {
+                    // drain the request so the connection can be kept alive
+                }
+                byte[] ok = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, ok.length);
+                OutputStream out = exchange.getResponseBody();
+                out.write(ok);
+                out.close();
+            }
+        });
+        serverThreads = Executors.newFixedThreadPool(8);
+        server.setExecutor(serverThreads);
+        server.start();
+        poster = new SlackPoster("http://127.0.0.1:" + server.getAddress().getPort() + "/services/T000/B000/XXXX");
+        payload = SlackPostBuildNotifier.toPayload("#builds", "Config Management v.1.1.7 - #1209 Success after 54 sec",
+                "#36a64f", "Jenkins Build Successfull", "https://jenkins.example.com/job/config-management/1209/",
+                "Changes:\n- Bump version [Jane Doe]", null, "Deployed to staging", null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop(0);
+        serverThreads.shutdownNow();
+    }
+
+    @Benchmark
+    public SlackPoster.Result publish() {
+        return poster.publish(payload);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public SlackPoster.Result publishConcurrently() {
+        return poster.publish(payload);
+    }
+}
@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import org.jenkinsci.plugins.slacknotifier.util.SlackText;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escaping of message text, which replaced the {@code escape()} of both notifiers: text that
+ * needs nothing, text with markup and links, and text long enough to be truncated.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SanitizeBenchmark {
+
+    @Param({"plain", "markup", "oversized"})
+    public String kind;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        if ("plain".equals(kind)) {
+            text = "Deployed build 1209 to staging, all checks passed @here";
+        } else if ("markup".equals(kind)) {
+            text = "Merged <https://github.com/example/repo/pull/42|#42>: List<String> & Map<K, V> cleanup, cc <@U024BE7LH>";
+        } else {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 4 * SlackText.MAX_FIELD_BYTES) {
+                sb.append("Stack trace line at com.example.Foo<init>(Foo.java:42) & more\n");
+            }
+            text = sb.toString();
+        }
+    }
+
+    @Benchmark
+    public String sanitize() {
+        return SlackText.sanitize(text, SlackText.MAX_FIELD_BYTES);
+    }
+}
@@ -0,0 +1,75 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.VariableResolver;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Variables available to a notifier message: JOB_NAME, BUILD_NUMBER, RESULT, DURATION and
+ * VERSION first, then the build parameters, then the build environment. The environment is
+ * only computed if a variable is not found earlier, as it is by far the most expensive.
+ */
+final class BuildMessageVariables implements VariableResolver<String> {
+
+    private final Run<?, ?> build;
+    private final TaskListener listener;
+    private final String version;
+    private Map<String, String> buildVariables;
+    private EnvVars environment;
+
+    BuildMessageVariables(Run<?, ?> build, TaskListener listener, String version) {
+        this.build = build;
+        this.listener = listener;
+        this.version = version;
+    }
+
+    public String resolve(String name) {
+        if ("JOB_NAME".equals(name)) {
+            return build.getParent().getFullName();
+        }
+        if ("BUILD_NUMBER".equals(name)) {
+            return String.valueOf(build.getNumber());
+        }
+        if ("RESULT".equals(name)) {
+            return build.getResult() == null ? "IN PROGRESS" : build.getResult().toString();
+        }
+        if ("DURATION".equals(name)) {
+            return build.getDurationString();
+        }
+        if ("VERSION".equals(name) && version != null) {
+            return version;
+        }
+        if (buildVariables == null) {
+            // only AbstractBuilds have build variables, Pipeline runs keep them in the environment
+            buildVariables = build instanceof AbstractBuild
+                    ? ((AbstractBuild<?, ?>) build).getBuildVariables()
+                    : Collections.<String, String>emptyMap();
+        }
+        String value = buildVariables.get(name);
+        if (value != null) {
+            return value;
+        }
+        return getEnvironment().get(name);
+    }
+
+    private EnvVars getEnvironment() {
+        if (environment == null) {
+            try {
+                environment = build.getEnvironment(listener);
+            } catch (IOException e) {
+                listener.getLogger().println("error reading the build environment: " + e.getMessage());
+                environment = new EnvVars();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                environment = new EnvVars();
+            }
+        }
+        return environment;
+    }
+}
@@ -0,0 +1,176 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.Extension;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMessage;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory index of the latest completed results of each job, kept current as
+ * builds complete, so status transitions can be worked out without loading build records.
+ *
+ * <p>
+ * "Previous" means the result of the build that completed most recently before the one
+ * being asked about, which stays correct when concurrent builds finish out of order. After
+ * a restart a job's entry is seeded lazily from its last completed build.
+ */
+@Extension
+public class BuildResultIndex extends RunListener<Run> {
+
+    public enum Transition {
+        STARTING, BACK_TO_NORMAL, SUCCESS, FIRST_FAILURE, STILL_FAILING, UNSTABLE, ABORTED, NOT_BUILT, UNKNOWN
+    }
+
+    private static final int MAX_JOBS = 1000;
+    private static final int HISTORY = 16;
+
+    private static final Map<String, JobResults> jobs = new LinkedHashMap<String, JobResults>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JobResults> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
+    @Override
+    public void onCompleted(Run run, TaskListener listener) {
+        getJobResults(run).record(run.getNumber(), run.getResult());
+    }
+
+    static String getStatusMessage(Run r) {
+        switch (getTransition(r)) {
+            case STARTING: return "Starting...";
+            case BACK_TO_NORMAL: return "Back to normal";
+            case SUCCESS: return "Success";
+            case FIRST_FAILURE:
+            case STILL_FAILING: return "Failure";
+            case ABORTED: return "Aborted";
+            case NOT_BUILT: return "Not built";
+            case UNSTABLE: return "Unstable";
+            default: return "Unknown";
+        }
+    }
+
+    /**
+     * Failures and recoveries are delivered ahead of routine success and start messages.
+     */
+    static SlackMessage.Priority getPriority(Run r) {
+        if (r.isBuilding()) {
+            Result result = r.getResult();
+            return result != null && result.isWorseOrEqualTo(Result.FAILURE) ? SlackMessage.Priority.HIGH : SlackMessage.Priority.LOW;
+        }
+        switch (getTransition(r)) {
+            case BACK_TO_NORMAL:
+            case FIRST_FAILURE:
+            case STILL_FAILING: return SlackMessage.Priority.HIGH;
+            case SUCCESS: return SlackMessage.Priority.LOW;
+            default: return SlackMessage.Priority.NORMAL;
+        }
+    }
+
+    static Transition getTransition(Run r) {
+        if (r.isBuilding()) {
+            return Transition.STARTING;
+        }
+        Result result = r.getResult();
+        Result previousResult = getJobResults(r).previousOf(r.getNumber());
+        if (previousResult == null) {
+            previousResult = Result.SUCCESS;
+        }
+        if (result == Result.SUCCESS) {
+            return previousResult == Result.FAILURE ? Transition.BACK_TO_NORMAL : Transition.SUCCESS;
+        }
+        if (result == Result.FAILURE) {
+            return previousResult == Result.FAILURE ? Transition.STILL_FAILING : Transition.FIRST_FAILURE;
+        }
+        if (result == Result.ABORTED) {
+            return Transition.ABORTED;
+        }
+        if (result == Result.NOT_BUILT) {
+            return Transition.NOT_BUILT;
+        }
+        if (result == Result.UNSTABLE) {
+            return Transition.UNSTABLE;
+        }
+        return Transition.UNKNOWN;
+    }
+
+    private static JobResults getJobResults(Run run) {
+        String key = run.getParent().getFullName();
+        JobResults results;
+        synchronized (jobs) {
+            results = jobs.get(key);
+            if (results == null) {
+                results = new JobResults();
+                jobs.put(key, results);
+            }
+        }
+        results.seed(run);
+        return results;
+    }
+
+    /**
+     * Latest completed result of one job plus, for its last few completed builds, the
+     * result that preceded each of them.
+     */
+    private static final class JobResults {
+        private final int[] numbers = new int[HISTORY];
+        private final Result[] previous = new Result[HISTORY];
+        private int next;
+        private boolean seeded;
+        private int lastNumber;
+        private Result lastResult;
+
+        /**
+         * Only the first call after a restart looks at the build history, and only at
+         * the latest completed build before the given one.
+         */
+        synchronized void seed(Run run) {
+            if (seeded) {
+                return;
+            }
+            seeded = true;
+            Run<?, ?> previousBuild = run.getPreviousCompletedBuild();
+            if (previousBuild != null) {
+                lastNumber = previousBuild.getNumber();
+                lastResult = previousBuild.getResult();
+            }
+        }
+
+        synchronized void record(int number, Result result) {
+            if (indexOf(number) >= 0) {
+                return;
+            }
+            numbers[next] = number;
+            previous[next] = lastResult;
+            next = (next + 1) % HISTORY;
+            // a late older build must not hide the state of a newer one
+            if (number > lastNumber) {
+                lastNumber = number;
+                lastResult = result;
+            }
+        }
+
+        /**
+         * The result that preceded the given build when it completed, or the latest
+         * completed result if it has not been recorded yet.
+         */
+        synchronized Result previousOf(int number) {
+            int index = indexOf(number);
+            return index >= 0 ? previous[index] : lastResult;
+        }
+
+        private int indexOf(int number) {
+            for (int i = 0; i < HISTORY; i++) {
+                if (numbers[i] == number && number != 0) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
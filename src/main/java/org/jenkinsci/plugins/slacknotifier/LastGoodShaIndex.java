@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.Extension;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.plugins.git.Revision;
+import hudson.plugins.git.util.BuildData;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded in-memory index of the commits the latest successful builds of each job were
+ * built from, kept current as builds complete, so a compare link can be made without
+ * loading build records. After a restart a job has no entry until its next success.
+ */
+@Extension
+public class LastGoodShaIndex extends RunListener<Run> {
+
+    private static final int MAX_JOBS = 1000;
+    /** Successful builds remembered per job, enough for builds completing out of order. */
+    private static final int HISTORY = 4;
+
+    private static final Map<String, GoodBuilds> jobs = new LinkedHashMap<String, GoodBuilds>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, GoodBuilds> eldest) {
+            return size() > MAX_JOBS;
+        }
+    };
+
+    @Override
+    public void onCompleted(Run run, TaskListener listener) {
+        Result result = run.getResult();
+        if (result == null || result.isWorseThan(Result.SUCCESS)) {
+            return;
+        }
+        String sha = getSha(run);
+        if (sha == null) {
+            return;
+        }
+        String key = run.getParent().getFullName();
+        GoodBuilds builds;
+        synchronized (jobs) {
+            builds = jobs.get(key);
+            if (builds == null) {
+                builds = new GoodBuilds();
+                jobs.put(key, builds);
+            }
+        }
+        builds.record(run.getNumber(), sha);
+    }
+
+    /**
+     * @return the commit of the latest successful build before the given one, or null if unknown
+     */
+    static String getLastGoodSha(Run run) {
+        GoodBuilds builds;
+        synchronized (jobs) {
+            builds = jobs.get(run.getParent().getFullName());
+        }
+        return builds != null ? builds.before(run.getNumber()) : null;
+    }
+
+    /**
+     * @return the commit the build was built from, or null if it has no git build data
+     */
+    static String getSha(Run run) {
+        BuildData data = run.getAction(BuildData.class);
+        if (data == null) {
+            return null;
+        }
+        Revision revision = data.getLastBuiltRevision();
+        return revision != null ? revision.getSha1String() : null;
+    }
+
+    private static final class GoodBuilds {
+        private final int[] numbers = new int[HISTORY];
+        private final String[] shas = new String[HISTORY];
+        private int next;
+
+        synchronized void record(int number, String sha) {
+            for (int i = 0; i < HISTORY; i++) {
+                if (numbers[i] == number) {
+                    return;
+                }
+            }
+            numbers[next] = number;
+            shas[next] = sha;
+            next = (next + 1) % HISTORY;
+        }
+
+        synchronized String before(int number) {
+            int best = -1;
+            for (int i = 0; i < HISTORY; i++) {
+                if (shas[i] != null && numbers[i] < number && (best < 0 || numbers[i] > numbers[best])) {
+                    best = i;
+                }
+            }
+            return best >= 0 ? shas[best] : null;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import com.google.inject.Inject;
+import hudson.Extension;
+import hudson.model.TaskListener;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.slacknotifier.util.SlackDelivery;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMessage;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * {@code slackAwait handle: h, timeout: 30}: waits until the notification of a
+ * {@link SlackNotifyStep} is delivered or given up, and returns whether every endpoint got
+ * it. Returns false once {@code timeout} seconds pass, or right away if the notification is
+ * no longer tracked. The wait holds neither an executor nor the CPS thread.
+ */
+public class SlackAwaitStep extends AbstractStepImpl {
+
+    public static final int DEFAULT_TIMEOUT_SECONDS = 60;
+
+    private final SlackNotificationHandle handle;
+    private final int timeout;
+
+    /**
+     * @param timeout
+     *      seconds to wait at most, {@value #DEFAULT_TIMEOUT_SECONDS} if not positive
+     */
+    @DataBoundConstructor
+    public SlackAwaitStep(SlackNotificationHandle handle, int timeout) {
+        this.handle = handle;
+        this.timeout = timeout;
+    }
+
+    public SlackNotificationHandle getHandle() {
+        return handle;
+    }
+
+    public int getTimeout() {
+        return timeout > 0 ? timeout : DEFAULT_TIMEOUT_SECONDS;
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "slackAwait";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Wait for a Slack notification to be delivered";
+        }
+    }
+
+    public static final class Execution extends AbstractStepExecutionImpl {
+
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient SlackAwaitStep step;
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        private transient AtomicBoolean completed;
+        private transient volatile ScheduledFuture<?> timeoutTask;
+
+        @Override
+        public boolean start() throws Exception {
+            completed = new AtomicBoolean();
+            final SlackNotificationHandle handle = step.getHandle();
+            SlackDelivery delivery = handle != null ? SlackDelivery.get(handle.getId()) : null;
+            if (delivery == null) {
+                listener.getLogger().println(handle + " is no longer tracked");
+                getContext().onSuccess(false);
+                return true;
+            }
+            final int seconds = step.getTimeout();
+            timeoutTask = Timer.get().schedule(new Runnable() {
+                public void run() {
+                    if (complete(false)) {
+                        listener.getLogger().println(handle + " not delivered after " + seconds + " seconds");
+                    }
+                }
+            }, seconds, TimeUnit.SECONDS);
+            delivery.whenDone(new SlackMessage.Callback() {
+                public void done(boolean delivered) {
+                    complete(delivered);
+                }
+            });
+            return false;
+        }
+
+        /**
+         * @return false if the step had already completed
+         */
+        private boolean complete(boolean delivered) {
+            if (!completed.compareAndSet(false, true)) {
+                return false;
+            }
+            ScheduledFuture<?> task = timeoutTask;
+            if (task != null) {
+                task.cancel(false);
+            }
+            getContext().onSuccess(delivered);
+            return true;
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            if (completed.compareAndSet(false, true)) {
+                ScheduledFuture<?> task = timeoutTask;
+                if (task != null) {
+                    task.cancel(false);
+                }
+                getContext().onFailure(cause);
+            }
+        }
+
+        @Override
+        public void onResume() {
+            // deliveries are not kept across restarts
+            completed = new AtomicBoolean(true);
+            getContext().onSuccess(false);
+        }
+    }
+}
@@ -1,28 +1,46 @@
 package org.jenkinsci.plugins.slacknotifier;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Extension;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.*;
 import hudson.plugins.git.browser.GitRepositoryBrowser;
 import hudson.plugins.git.util.BuildData;
 import hudson.scm.ChangeLogSet;
 import hudson.util.FormValidation;
+import hudson.util.Secret;
 import hudson.tasks.Builder;
 import hudson.tasks.BuildStepDescriptor;
 import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
-import org.jenkinsci.plugins.slacknotifier.util.SlackPoster;
-import org.json.JSONArray;
+import org.jenkinsci.plugins.slacknotifier.util.CircuitBreaker;
+import org.jenkinsci.plugins.slacknotifier.util.SlackDelivery;
+import org.jenkinsci.plugins.slacknotifier.util.MessageTemplate;
+import org.jenkinsci.plugins.slacknotifier.util.SlackDeliveryQueue;
+import org.jenkinsci.plugins.slacknotifier.util.SlackHttpClient;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMessage;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMetrics;
+import org.jenkinsci.plugins.slacknotifier.util.SlackOutbox;
+import org.jenkinsci.plugins.slacknotifier.util.SlackPayloadWriter;
+import org.jenkinsci.plugins.slacknotifier.util.SlackRoutingTable;
+import org.jenkinsci.plugins.slacknotifier.util.SlackText;
+import org.jenkinsci.plugins.slacknotifier.util.SlackWebApi;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.QueryParameter;
 
 import javax.servlet.ServletException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Sample {@link Builder}.
@@ -41,10 +59,12 @@ import java.util.Set;
  *
  * @author Kohsuke Kawaguchi
  */
-public class SlackBuildStepNotifier extends Builder {
+public class SlackBuildStepNotifier extends Builder implements SimpleBuildStep {
 
     private final String channel;
     private final String message;
+    /** Compiled {@link #message}; the notifier is replaced whenever the job config is saved. */
+    private transient volatile MessageTemplate template;
 
     public String getChannel() {
         return channel;
@@ -61,81 +81,76 @@ public class SlackBuildStepNotifier extends Builder {
         this.message = message;
     }
 
-    @Override
-    public boolean perform(AbstractBuild build, Launcher launcher, BuildListener listener) {
-
-        String endpoint = ((SlackBuildStepNotifier.DescriptorImpl)Jenkins.getInstance().getDescriptor(SlackBuildStepNotifier.class)).getWebHookEndpoint();
-        String jenkinsServer = ((SlackBuildStepNotifier.DescriptorImpl)Jenkins.getInstance().getDescriptor(SlackBuildStepNotifier.class)).getJenkinsServerUrl();
-
-        org.json.JSONObject json = new org.json.JSONObject();
-        json.put("channel", channel);
-        json.put("username", "Jenkins");
-        String summary = build.getProject().getFullDisplayName() + " - " + build.getDisplayName() + " build " + getStatusMessage(build).toLowerCase();
-        json.put("text", summary); // "Config Management v.1.1.7 b 1209 success after 54 sec");
-        json.put("icon_url", "https://wiki.jenkins-ci.org/download/attachments/2916393/headshot.png?version=1&modificationDate=1302753947000");
-        json.put("link_names", 1);
-
+    private MessageTemplate getTemplate() {
+        MessageTemplate t = template;
+        if (t == null) {
+            template = t = MessageTemplate.compile(message);
+        }
+        return t;
+    }
 
-        JSONArray mrkdown_in = new JSONArray();
-        mrkdown_in.put("text");
+    /**
+     * Also runs for freestyle builds, through {@link Builder#perform(AbstractBuild, Launcher, BuildListener)}.
+     * Nothing is read from the workspace, which may be null.
+     */
+    public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            doPerform(build, listener);
+        } finally {
+            SlackMetrics.recordPerform(getClass().getSimpleName(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
 
-        org.json.JSONObject jenkins = new org.json.JSONObject();
-        jenkins.put("fallback", "not printable");
-        jenkins.put("color", "#c2c2d6");
-        jenkins.put("title", "Jenkins " );
-        jenkins.put("title_link", jenkinsServer + build.getUrl());
-        jenkins.put("text", this.escape(message));
-        jenkins.put("mrkdwn_in", mrkdown_in);
+    private void doPerform(Run<?, ?> build, TaskListener listener) throws InterruptedException {
 
-        JSONArray attachments = new JSONArray();
-        attachments.put(jenkins);
+        SlackBuildStepNotifier.DescriptorImpl descriptor = (SlackBuildStepNotifier.DescriptorImpl)Jenkins.getInstance().getDescriptor(SlackBuildStepNotifier.class);
+        List<String> endpoints = SlackRoutingTable.current().endpointsFor(channel);
+        if (endpoints.isEmpty() && !descriptor.isWebApiMode()) {
+            listener.getLogger().println("no slack endpoint configured for " + channel);
+            return;
+        }
 
-        json.put("attachments",attachments);
+        String summary = getSummary(build);
+        String attachment = getAttachment(build, listener, getTemplate(), descriptor.getJenkinsServerUrl());
 
+        if (descriptor.isWebApiMode()) {
+            // every build step notifier keeps its own attachment in the build's message, keyed
+            // by its template so the key survives a restart; steps with the same template share one
+            descriptor.update(build, channel, "step " + message, summary, attachment, listener);
+            return;
+        }
 
-        new SlackPoster(endpoint).publish(json);
-        listener.getLogger().printf("message posted to slack");
-        return true;
+        String json = SlackPayloadWriter.begin().rawAttachment(attachment).end(channel, summary);
 
+        descriptor.deliver(endpoints, channel, json, BuildResultIndex.getPriority(build), build.getParent().getFullName(), listener);
+    }
 
+    static String getSummary(Run<?, ?> build) {
+        return getSummary(build, BuildResultIndex.getStatusMessage(build));
     }
-    public String escape(String string) {
-        string = string.replace("&", "&amp;");
-        string = string.replace("<", "&lt;");
-        string = string.replace(">", "&gt;");
 
-        return string;
+    static String getSummary(Run<?, ?> build, String status) {
+        // "Config Management - #1209 build starting..."
+        return SlackText.sanitize(build.getParent().getFullDisplayName() + " - " + build.getDisplayName() + " build " + status.toLowerCase(), SlackText.MAX_FIELD_BYTES);
     }
 
-    static String getStatusMessage(AbstractBuild r) {
-        if (r.isBuilding()) {
-            return "Starting...";
-        }
-        Result result = r.getResult();
-        Run previousBuild = r.getProject().getLastBuild().getPreviousBuild();
-        Result previousResult = (previousBuild != null) ? previousBuild.getResult() : Result.SUCCESS;
-        if (result == Result.SUCCESS && previousResult == Result.FAILURE) {
-            return "Back to normal";
-        }
-        if (result == Result.SUCCESS) {
-            return "Success";
-        }
-        if (result == Result.FAILURE) {
-            return "Failure";
-        }
-        if (result == Result.ABORTED) {
-            return "Aborted";
-        }
-        if (result == Result.NOT_BUILT) {
-            return "Not built";
-        }
-        if (result == Result.UNSTABLE) {
-            return "Unstable";
-        }
-        return "Unknown";
+    static String getAttachment(Run<?, ?> build, TaskListener listener, MessageTemplate template, String jenkinsServer) {
+        String text = SlackText.sanitize(template.render(new BuildMessageVariables(build, listener, null)), SlackText.MAX_FIELD_BYTES);
+        return SlackPayloadWriter.attachmentJson("not printable", "#c2c2d6", "Jenkins ", jenkinsServer + build.getUrl(), text, true);
     }
 
 
+    /**
+     * Resends what the outbox kept from the last run. The descriptor is looked up first, as
+     * loading it is what enables the outbox.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replayOutbox() {
+        Jenkins.getInstance().getDescriptorByType(DescriptorImpl.class);
+        SlackOutbox.replay();
+    }
+
     // Overridden for better type safety.
     // If your plugin doesn't really define any property on Descriptor,
     // you don't have to do this.
@@ -162,7 +177,18 @@ public class SlackBuildStepNotifier extends Builder {
          * If you don't want fields to be persisted, use <tt>transient</tt>.
          */
         private String webHookEndpoint;
+        private List<SlackRoute> routes;
         private String jenkinsServerUrl;
+        private boolean asyncDelivery;
+        private int queueCapacity;
+        private int deliveryThreads;
+        private SlackDeliveryQueue.OverflowPolicy overflowPolicy;
+        private int connectTimeout;
+        private int readTimeout;
+        private int circuitBreakerThreshold;
+        private int circuitBreakerCoolDown;
+        private boolean durableOutbox;
+        private Secret botToken;
 
         /**
          * In order to load the persisted global configuration, you have to 
@@ -170,6 +196,7 @@ public class SlackBuildStepNotifier extends Builder {
          */
         public DescriptorImpl() {
             load();
+            applySettings();
         }
 
         /**
@@ -210,13 +237,93 @@ public class SlackBuildStepNotifier extends Builder {
             // To persist global configuration information,
             // set that to properties and call save().
             webHookEndpoint = formData.getString("webHookEndpoint");
+            routes = formData.has("routes")
+                    ? req.bindJSONToList(SlackRoute.class, formData.get("routes"))
+                    : new ArrayList<SlackRoute>();
             jenkinsServerUrl = formData.getString("jenkinsServerUrl");
+            asyncDelivery = formData.optBoolean("asyncDelivery");
+            queueCapacity = formData.optInt("queueCapacity", SlackDeliveryQueue.DEFAULT_CAPACITY);
+            deliveryThreads = formData.optInt("deliveryThreads", SlackDeliveryQueue.DEFAULT_THREADS);
+            overflowPolicy = SlackDeliveryQueue.OverflowPolicy.valueOf(
+                    formData.optString("overflowPolicy", SlackDeliveryQueue.OverflowPolicy.BLOCK.name()));
+            connectTimeout = formData.optInt("connectTimeout", SlackHttpClient.DEFAULT_CONNECT_TIMEOUT_SECONDS);
+            readTimeout = formData.optInt("readTimeout", SlackHttpClient.DEFAULT_READ_TIMEOUT_SECONDS);
+            circuitBreakerThreshold = formData.optInt("circuitBreakerThreshold", CircuitBreaker.DEFAULT_FAILURE_THRESHOLD);
+            circuitBreakerCoolDown = formData.optInt("circuitBreakerCoolDown", CircuitBreaker.DEFAULT_COOL_DOWN_SECONDS);
+            durableOutbox = formData.optBoolean("durableOutbox");
+            botToken = Secret.fromString(formData.optString("botToken"));
+            applySettings();
             // ^Can also use req.bindJSON(this, formData);
             //  (easier when there are many fields; need set* methods for this, like setUseFrench)
             save();
             return super.configure(req,formData);
         }
 
+        /**
+         * Sends the message to every endpoint, queued or right away depending on the
+         * global configuration.
+         */
+        void deliver(List<String> endpoints, String channel, String json, SlackMessage.Priority priority,
+                     String job, TaskListener listener) throws InterruptedException {
+            List<SlackMessage> messages = new ArrayList<SlackMessage>(endpoints.size());
+            for (String endpoint : endpoints) {
+                messages.add(new SlackMessage(endpoint, channel, json, priority, job));
+            }
+            if (isAsyncDelivery()) {
+                SlackDeliveryQueue.getInstance().offer(messages);
+                listener.getLogger().printf("message queued for slack");
+            } else {
+                SlackDeliveryQueue.getInstance().deliverNow(messages);
+                listener.getLogger().printf("message posted to slack");
+            }
+        }
+
+        /**
+         * Queues the message for every endpoint without waiting, whatever the global
+         * configuration, and tracks its delivery.
+         */
+        SlackDelivery submit(List<String> endpoints, String channel, String json, SlackMessage.Priority priority,
+                             String job) throws InterruptedException {
+            List<SlackMessage> messages = new ArrayList<SlackMessage>(endpoints.size());
+            for (String endpoint : endpoints) {
+                messages.add(new SlackMessage(endpoint, channel, json, priority, job));
+            }
+            SlackDelivery delivery = SlackDelivery.track(messages);
+            for (SlackMessage message : messages) {
+                SlackDeliveryQueue.getInstance().submit(message);
+            }
+            return delivery;
+        }
+
+        /**
+         * Posts the build's message in the channel, or updates it if an earlier notification
+         * of the build posted it already.
+         *
+         * @param section
+         *      the part of the message owned by the calling notifier
+         */
+        void update(Run<?, ?> build, String channel, String section, String text, String attachments,
+                    TaskListener listener) {
+            SlackMessageAction.update(build, channel, section, text, attachments,
+                    new SlackWebApi(botToken.getPlainText()));
+            listener.getLogger().printf("slack message update queued");
+        }
+
+        /**
+         * Pushes the delivery related settings down to the shared Slack client.
+         */
+        private void applySettings() {
+            List<SlackRoutingTable.Rule> rules = new ArrayList<SlackRoutingTable.Rule>();
+            for (SlackRoute route : getRoutes()) {
+                rules.add(route.toRule());
+            }
+            SlackRoutingTable.install(new SlackRoutingTable(webHookEndpoint, rules));
+            SlackDeliveryQueue.configure(getQueueCapacity(), getDeliveryThreads(), getOverflowPolicy());
+            SlackHttpClient.setTimeouts(getConnectTimeout(), getReadTimeout());
+            CircuitBreaker.configure(getCircuitBreakerThreshold(), getCircuitBreakerCoolDown());
+            SlackOutbox.configure(durableOutbox);
+        }
+
         /**
          * This method returns true if the global configuration says we should speak French.
          *
@@ -227,9 +334,61 @@ public class SlackBuildStepNotifier extends Builder {
             return webHookEndpoint;
         }
 
+        public List<SlackRoute> getRoutes() {
+            return routes != null ? routes : Collections.<SlackRoute>emptyList();
+        }
+
         public String getJenkinsServerUrl() {
             return jenkinsServerUrl;
         }
+
+        public boolean isAsyncDelivery() {
+            return asyncDelivery;
+        }
+
+        public int getQueueCapacity() {
+            return queueCapacity > 0 ? queueCapacity : SlackDeliveryQueue.DEFAULT_CAPACITY;
+        }
+
+        public int getDeliveryThreads() {
+            return deliveryThreads > 0 ? deliveryThreads : SlackDeliveryQueue.DEFAULT_THREADS;
+        }
+
+        public SlackDeliveryQueue.OverflowPolicy getOverflowPolicy() {
+            return overflowPolicy != null ? overflowPolicy : SlackDeliveryQueue.OverflowPolicy.BLOCK;
+        }
+
+        public int getConnectTimeout() {
+            return connectTimeout > 0 ? connectTimeout : SlackHttpClient.DEFAULT_CONNECT_TIMEOUT_SECONDS;
+        }
+
+        public int getReadTimeout() {
+            return readTimeout > 0 ? readTimeout : SlackHttpClient.DEFAULT_READ_TIMEOUT_SECONDS;
+        }
+
+        public int getCircuitBreakerThreshold() {
+            return circuitBreakerThreshold > 0 ? circuitBreakerThreshold : CircuitBreaker.DEFAULT_FAILURE_THRESHOLD;
+        }
+
+        public int getCircuitBreakerCoolDown() {
+            return circuitBreakerCoolDown > 0 ? circuitBreakerCoolDown : CircuitBreaker.DEFAULT_COOL_DOWN_SECONDS;
+        }
+
+        public boolean isDurableOutbox() {
+            return durableOutbox;
+        }
+
+        public Secret getBotToken() {
+            return botToken;
+        }
+
+        /**
+         * Whether notifications go through the Slack Web API as one message per build,
+         * instead of one web hook post each.
+         */
+        public boolean isWebApiMode() {
+            return botToken != null && StringUtils.isNotBlank(botToken.getPlainText());
+        }
     }
 }
 
@@ -0,0 +1,32 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.Extension;
+import hudson.model.PeriodicWork;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.slacknotifier.util.SlackDigest;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the {@link SlackDigest} of every channel once per configured digest interval.
+ */
+@Extension
+public class SlackDigestWork extends PeriodicWork {
+
+    private long lastSent = System.currentTimeMillis();
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void doRun() throws Exception {
+        int interval = ((SlackPostBuildNotifier.DescriptorImpl)Jenkins.getInstance().getDescriptor(SlackPostBuildNotifier.class)).getDigestInterval();
+        long now = System.currentTimeMillis();
+        if (now - lastSent >= TimeUnit.MINUTES.toMillis(interval)) {
+            lastSent = now;
+            SlackDigest.send(interval);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.slacknotifier.util.SlackLiveMessage;
+import org.jenkinsci.plugins.slacknotifier.util.SlackWebApi;
+
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the Slack message posted for a build in a channel, so later notifications of
+ * the build update it instead of posting new ones.
+ */
+public class SlackMessageAction extends InvisibleAction {
+
+    private static final Logger logger = Logger.getLogger(SlackMessageAction.class.getName());
+
+    private final SlackLiveMessage message;
+
+    public SlackMessageAction(SlackLiveMessage message) {
+        this.message = message;
+    }
+
+    public SlackLiveMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Replaces the section of the build's message in the channel, posting the message if
+     * this is the first notification of the build there.
+     */
+    static void update(final Run<?, ?> build, String channel, String section, String text, String attachments,
+                       SlackWebApi api) {
+        forChannel(build, channel).update(section, text, attachments, api, BuildResultIndex.getPriority(build),
+                build.getParent().getFullName(), new Runnable() {
+            public void run() {
+                try {
+                    // keeps the timestamp and sections, also if the build already finished
+                    build.save();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Failed to save Slack message of " + build, e);
+                }
+            }
+        });
+    }
+
+    private static SlackLiveMessage forChannel(Run<?, ?> build, String channel) {
+        synchronized (build) {
+            for (SlackMessageAction action : build.getActions(SlackMessageAction.class)) {
+                if (StringUtils.equals(action.message.getChannel(), channel)) {
+                    return action.message;
+                }
+            }
+            SlackMessageAction action = new SlackMessageAction(new SlackLiveMessage(channel));
+            build.addAction(action);
+            return action.message;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.MetricSet;
+import hudson.Extension;
+import jenkins.metrics.api.MetricProvider;
+import org.jenkinsci.plugins.slacknotifier.util.CircuitBreaker;
+import org.jenkinsci.plugins.slacknotifier.util.SlackDeliveryQueue;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMessage;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMetrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Publishes the delivery counters to the Metrics plugin when it is installed. The gauges read
+ * {@link SlackMetrics}, so nothing is recorded twice; the per endpoint histograms are only
+ * served by {@link SlackMetricsAction}, as their keys are not known up front.
+ */
+@Extension(optional = true)
+public class SlackMetricProvider extends MetricProvider {
+
+    private final MetricSet metrics = new MetricSet() {
+        public Map<String, Metric> getMetrics() {
+            Map<String, Metric> metrics = new HashMap<String, Metric>();
+            metrics.put(name("sent"), new Gauge<Long>() {
+                public Long getValue() {
+                    return SlackMetrics.getSent();
+                }
+            });
+            metrics.put(name("failed"), new Gauge<Long>() {
+                public Long getValue() {
+                    return SlackMetrics.getFailed();
+                }
+            });
+            metrics.put(name("retried"), new Gauge<Long>() {
+                public Long getValue() {
+                    return SlackMetrics.getRetried();
+                }
+            });
+            metrics.put(name("dropped"), new Gauge<Long>() {
+                public Long getValue() {
+                    return SlackMetrics.getDropped();
+                }
+            });
+            metrics.put(name("queue", "depth"), new Gauge<Integer>() {
+                public Integer getValue() {
+                    return SlackDeliveryQueue.getInstance().getDepth();
+                }
+            });
+            for (final SlackMessage.Priority priority : SlackMessage.Priority.values()) {
+                metrics.put(name("queue", "depth", priority.name().toLowerCase()), new Gauge<Integer>() {
+                    public Integer getValue() {
+                        return SlackDeliveryQueue.getInstance().getDepth(priority);
+                    }
+                });
+            }
+            metrics.put(name("circuits", "open"), new Gauge<Integer>() {
+                public Integer getValue() {
+                    return CircuitBreaker.getOpenCount();
+                }
+            });
+            return metrics;
+        }
+    };
+
+    private static String name(String... names) {
+        return MetricRegistry.name("slacknotifier", names);
+    }
+
+    @Override
+    public MetricSet getMetricSet() {
+        return metrics;
+    }
+}
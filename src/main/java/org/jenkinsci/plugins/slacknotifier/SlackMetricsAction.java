@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.Extension;
+import hudson.model.RootAction;
+import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.slacknotifier.util.CircuitBreaker;
+import org.jenkinsci.plugins.slacknotifier.util.LatencyHistogram;
+import org.jenkinsci.plugins.slacknotifier.util.SlackDeliveryQueue;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMessage;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMetrics;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Serves the delivery metrics as JSON at <tt>/slack-metrics/</tt>. {@code status} is
+ * {@code ok} while no endpoint is failing fast and the delivery queue has room, and
+ * {@code degraded} otherwise.
+ */
+@Extension
+public class SlackMetricsAction implements RootAction {
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "Slack Notifier Metrics";
+    }
+
+    public String getUrlName() {
+        return "slack-metrics";
+    }
+
+    public void doIndex(StaplerRequest req, StaplerResponse rsp) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        rsp.setHeader("Cache-Control", "no-cache");
+        rsp.getWriter().write(toJson().toString());
+    }
+
+    static JSONObject toJson() {
+        SlackDeliveryQueue queue = SlackDeliveryQueue.getInstance();
+        int openCircuits = CircuitBreaker.getOpenCount();
+
+        JSONObject json = new JSONObject();
+        json.put("status", openCircuits == 0 && queue.getDepth() < queue.getCapacity() ? "ok" : "degraded");
+        json.put("sent", SlackMetrics.getSent());
+        json.put("failed", SlackMetrics.getFailed());
+        json.put("retried", SlackMetrics.getRetried());
+        json.put("dropped", SlackMetrics.getDropped());
+        json.put("queueDepth", queue.getDepth());
+        JSONObject depthByPriority = new JSONObject();
+        for (SlackMessage.Priority priority : SlackMessage.Priority.values()) {
+            depthByPriority.put(priority.name().toLowerCase(), queue.getDepth(priority));
+        }
+        json.put("queueDepthByPriority", depthByPriority);
+        json.put("queueCapacity", queue.getCapacity());
+        json.put("openCircuits", openCircuits);
+        json.put("postLatencyMillis", toJson(SlackMetrics.getPostLatency()));
+        json.put("performMicros", toJson(SlackMetrics.getPerformTime()));
+        return json;
+    }
+
+    private static JSONObject toJson(Map<String, LatencyHistogram> histograms) {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, LatencyHistogram> e : histograms.entrySet()) {
+            LatencyHistogram histogram = e.getValue();
+            JSONObject h = new JSONObject();
+            h.put("count", histogram.getCount());
+            h.put("mean", histogram.getMean());
+            h.put("p50", histogram.percentile(0.5));
+            h.put("p95", histogram.percentile(0.95));
+            h.put("p99", histogram.percentile(0.99));
+            json.put(e.getKey(), h);
+        }
+        return json;
+    }
+}
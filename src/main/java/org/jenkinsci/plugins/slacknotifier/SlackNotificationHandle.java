@@ -0,0 +1,34 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import java.io.Serializable;
+
+/**
+ * Returned by the {@code slackNotify} Pipeline step, so the script can later wait for the
+ * notification with {@code slackAwait}. Only the id is kept, the delivery itself stays in
+ * memory, so a handle that outlives a restart no longer finds it.
+ */
+public final class SlackNotificationHandle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+    private final String channel;
+
+    SlackNotificationHandle(String id, String channel) {
+        this.id = id;
+        this.channel = channel;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    @Override
+    public String toString() {
+        return "Slack notification to " + channel;
+    }
+}
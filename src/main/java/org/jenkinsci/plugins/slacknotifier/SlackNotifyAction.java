@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.model.InvisibleAction;
+import hudson.model.Run;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the notifications the {@code slackNotify} steps of a build queued, saved with the
+ * build right away, so a step resumed after a restart does not queue its notification again.
+ */
+public class SlackNotifyAction extends InvisibleAction {
+
+    private static final Logger logger = Logger.getLogger(SlackNotifyAction.class.getName());
+
+    // by step execution, guarded by this
+    private final Map<String, SlackNotificationHandle> queued = new HashMap<String, SlackNotificationHandle>();
+
+    /**
+     * @return the handle of the notification the step execution queued, or null if it queued none
+     */
+    static SlackNotificationHandle find(Run<?, ?> build, String execution) {
+        synchronized (build) {
+            SlackNotifyAction action = build.getAction(SlackNotifyAction.class);
+            if (action == null) {
+                return null;
+            }
+            synchronized (action) {
+                return action.queued.get(execution);
+            }
+        }
+    }
+
+    /**
+     * Records that the step execution queued its notification, and saves the build.
+     */
+    static void record(Run<?, ?> build, String execution, SlackNotificationHandle handle) {
+        synchronized (build) {
+            SlackNotifyAction action = build.getAction(SlackNotifyAction.class);
+            if (action == null) {
+                action = new SlackNotifyAction();
+                build.addAction(action);
+            }
+            synchronized (action) {
+                action.queued.put(execution, handle);
+            }
+        }
+        try {
+            build.save();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to save the Slack notifications queued by " + build, e);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import com.google.inject.Inject;
+import hudson.Extension;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.slacknotifier.util.MessageTemplate;
+import org.jenkinsci.plugins.slacknotifier.util.SlackDelivery;
+import org.jenkinsci.plugins.slacknotifier.util.SlackPayloadWriter;
+import org.jenkinsci.plugins.slacknotifier.util.SlackRoutingTable;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Future;
+
+/**
+ * {@code slackNotify channel: '#builds', message: '...'}: queues the message of a
+ * {@link SlackBuildStepNotifier} to its web hooks and returns with a
+ * {@link SlackNotificationHandle}. It needs no node, and the message is rendered and queued
+ * on a background thread, so many parallel branches can notify at little cost. Pass the
+ * handle to {@link SlackAwaitStep} to wait for delivery. The Web API is not used, even
+ * with a bot token configured.
+ */
+public class SlackNotifyStep extends AbstractStepImpl {
+
+    private final String channel;
+    private final String message;
+
+    @DataBoundConstructor
+    public SlackNotifyStep(String channel, String message) {
+        this.channel = channel;
+        this.message = message;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Extension(optional = true)
+    public static final class DescriptorImpl extends AbstractStepDescriptorImpl {
+
+        public DescriptorImpl() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "slackNotify";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Send a Slack notification";
+        }
+    }
+
+    public static final class Execution extends AbstractStepExecutionImpl {
+
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient SlackNotifyStep step;
+
+        // kept so the notification can be queued again after a restart
+        private String channel;
+        private String message;
+        /** Identifies this execution in the build's {@link SlackNotifyAction}. */
+        private String id;
+
+        private transient volatile Future<?> task;
+
+        @Override
+        public boolean start() throws Exception {
+            channel = step.getChannel();
+            message = step.getMessage();
+            id = UUID.randomUUID().toString();
+            schedule();
+            return false;
+        }
+
+        /**
+         * Renders and queues the notification on a background thread: the template may read
+         * the build's environment and the outbox writes to disk, neither belongs on the CPS thread.
+         */
+        private void schedule() {
+            task = Timer.get().submit(new Runnable() {
+                public void run() {
+                    try {
+                        Run<?, ?> run = getContext().get(Run.class);
+                        SlackNotificationHandle handle = id != null ? SlackNotifyAction.find(run, id) : null;
+                        if (handle == null) {
+                            handle = notifySlack(run, getContext().get(TaskListener.class));
+                            if (id != null) {
+                                SlackNotifyAction.record(run, id, handle);
+                            }
+                        }
+                        getContext().onSuccess(handle);
+                    } catch (Exception e) {
+                        getContext().onFailure(e);
+                    }
+                }
+            });
+        }
+
+        private SlackNotificationHandle notifySlack(Run<?, ?> run, TaskListener listener) throws Exception {
+            SlackBuildStepNotifier.DescriptorImpl descriptor = (SlackBuildStepNotifier.DescriptorImpl) Jenkins.getInstance().getDescriptor(SlackBuildStepNotifier.class);
+            List<String> endpoints = SlackRoutingTable.current().endpointsFor(channel);
+            if (endpoints.isEmpty()) {
+                if (descriptor.isWebApiMode()) {
+                    listener.getLogger().println("slackNotify only posts through web hooks, and no web hook is configured for "
+                            + channel + "; the bot token is not used, nothing is sent");
+                } else {
+                    listener.getLogger().println("no slack endpoint configured for " + channel + ", nothing is sent");
+                }
+            }
+
+            Result result = run.getResult();
+            String summary = SlackBuildStepNotifier.getSummary(run, result == null ? "in progress" : result.toString());
+            String attachment = SlackBuildStepNotifier.getAttachment(run, listener,
+                    MessageTemplate.compile(message), descriptor.getJenkinsServerUrl());
+            String json = SlackPayloadWriter.begin().rawAttachment(attachment).end(channel, summary);
+
+            SlackDelivery delivery = descriptor.submit(endpoints, channel, json, BuildResultIndex.getPriority(run),
+                    run.getParent().getFullName());
+            if (!endpoints.isEmpty()) {
+                listener.getLogger().println("message queued for slack");
+            }
+            return new SlackNotificationHandle(delivery.getId(), channel);
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            Future<?> t = task;
+            if (t != null) {
+                t.cancel(true);
+            }
+            getContext().onFailure(cause);
+        }
+
+        @Override
+        public void onResume() {
+            // completes with the recorded handle if the notification was queued before the
+            // restart, the outbox resends it if need be; queues it only if it never was
+            schedule();
+        }
+    }
+}
@@ -1,31 +1,39 @@
 package org.jenkinsci.plugins.slacknotifier;
 
 import hudson.Extension;
+import hudson.FilePath;
 import hudson.Launcher;
 import hudson.model.*;
+import hudson.plugins.git.GitChangeSet;
 import hudson.plugins.git.browser.GitRepositoryBrowser;
-import hudson.plugins.git.util.BuildData;
-import hudson.scm.ChangeLogSet;
+import hudson.plugins.git.browser.GithubWeb;
+import hudson.scm.RepositoryBrowser;
 import hudson.tasks.*;
 import hudson.util.FormValidation;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.apache.commons.lang.StringUtils;
-import org.jenkinsci.plugins.slacknotifier.util.SlackPoster;
-import org.json.JSONArray;
+import org.jenkinsci.plugins.slacknotifier.util.CommitListSummarizer;
+import org.jenkinsci.plugins.slacknotifier.util.ConsoleTail;
+import org.jenkinsci.plugins.slacknotifier.util.MessageTemplate;
+import org.jenkinsci.plugins.slacknotifier.util.SlackCoalescer;
+import org.jenkinsci.plugins.slacknotifier.util.SlackDigest;
+import org.jenkinsci.plugins.slacknotifier.util.SlackMetrics;
+import org.jenkinsci.plugins.slacknotifier.util.SlackPayloadWriter;
+import org.jenkinsci.plugins.slacknotifier.util.SlackRoutingTable;
+import org.jenkinsci.plugins.slacknotifier.util.SlackSuppressor;
+import org.jenkinsci.plugins.slacknotifier.util.SlackText;
+import org.jenkinsci.plugins.slacknotifier.util.VersionFileReader;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import javax.servlet.ServletException;
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created 3/17/15 9:24 PM
@@ -41,190 +49,221 @@ public class SlackPostBuildNotifier extends Notifier {
 
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        long start = System.nanoTime();
+        try {
+            return doPerform(build, listener);
+        } finally {
+            SlackMetrics.recordPerform(getClass().getSimpleName(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        }
+    }
 
-        String endpoint = ((SlackBuildStepNotifier.DescriptorImpl)Jenkins.getInstance().getDescriptor(SlackBuildStepNotifier.class)).getWebHookEndpoint();
-        String jenkinsServer = ((SlackBuildStepNotifier.DescriptorImpl)Jenkins.getInstance().getDescriptor(SlackBuildStepNotifier.class)).getJenkinsServerUrl();
-
-
+    private boolean doPerform(AbstractBuild<?, ?> build, BuildListener listener) throws InterruptedException, IOException {
 
-        org.json.JSONObject json = new org.json.JSONObject();
-        json.put("channel", channel);
-        json.put("username", "Jenkins");
-        String summary = build.getProject().getFullDisplayName() + " " + getVersion(build, listener) + " - " + build.getDisplayName() + " " + getStatusMessage(build) + " after " + build.getDurationString();
-        json.put("text", summary); // "Config Management v.1.1.7 b 1209 success after 54 sec");
-        json.put("icon_url", "https://wiki.jenkins-ci.org/download/attachments/2916393/headshot.png?version=1&modificationDate=1302753947000");
-        json.put("link_names", 1);
+        SlackBuildStepNotifier.DescriptorImpl descriptor = (SlackBuildStepNotifier.DescriptorImpl)Jenkins.getInstance().getDescriptor(SlackBuildStepNotifier.class);
+        List<String> endpoints = SlackRoutingTable.current().endpointsFor(channel);
+        if (endpoints.isEmpty() && !descriptor.isWebApiMode()) {
+            listener.getLogger().println("no slack endpoint configured for " + channel);
+            return true;
+        }
+        String jenkinsServer = descriptor.getJenkinsServerUrl();
 
+        if (digest) {
+            boolean backToNormal = BuildResultIndex.getTransition(build) == BuildResultIndex.Transition.BACK_TO_NORMAL;
+            for (String endpoint : endpoints) {
+                SlackDigest.record(endpoint, channel, build.getProject().getFullDisplayName(), build.getResult(),
+                        backToNormal, build.getDuration());
+            }
+            listener.getLogger().printf("build recorded for the slack digest");
+            return true;
+        }
 
-        JSONArray mrkdown_in = new JSONArray();
-        mrkdown_in.put("text");
+        String version = getVersion(build, listener);
+        String summary = SlackText.sanitize(build.getProject().getFullDisplayName() + " " + version + " - " + build.getDisplayName() + " " + BuildResultIndex.getStatusMessage(build) + " after " + build.getDurationString(), SlackText.MAX_FIELD_BYTES);
+        // "Config Management v.1.1.7 b 1209 success after 54 sec"
 
-        org.json.JSONObject jenkins = new org.json.JSONObject();
-        org.json.JSONObject github = new org.json.JSONObject();
-        org.json.JSONObject message = new org.json.JSONObject();
-        jenkins.put("fallback", "not printable");
-        github.put("fallback", "not printable");
-        message.put("fallback", "not printable");
+        String color;
+        String title;
         if(build.getResult().isBetterOrEqualTo(Result.SUCCESS)) {
-            jenkins.put("color", "#36a64f");
-            github.put("color", "#36a64f");
-            message.put("color", "#36a64f");
-//            jenkins.put("pretext", "Optional text");
-            jenkins.put("title", "Jenkins Build Successfull");
+            color = "#36a64f";
+            title = "Jenkins Build Successfull";
         } else {
-            jenkins.put("color", "#CD0000");
-            github.put("color", "#CD0000");
-            message.put("color", "#CD0000");
-            jenkins.put("title", "Jenkins Build Failed");
+            color = "#CD0000";
+            title = "Jenkins Build Failed";
+        }
+        String commitList = getCommitList(build);
+        String buildUrl = jenkinsServer + build.getUrl();
+        String text = SlackText.sanitize(getTemplate().render(new BuildMessageVariables(build, listener, version)), SlackText.MAX_FIELD_BYTES);
+        String console = build.getResult().isWorseOrEqualTo(Result.FAILURE) ? getConsoleExcerpt(build, listener) : null;
+
+        if (descriptor.isWebApiMode()) {
+            // the build's message is updated in place, so there is nothing to merge or hold back
+            descriptor.update(build, channel, "result", summary,
+                    toAttachments(color, title, buildUrl, commitList, getGithubLink(build), text, console), listener);
+            return true;
         }
-        jenkins.put("title_link", jenkinsServer + build.getUrl());
-        jenkins.put("text", getCommitList(build));
-        jenkins.put("mrkdwn_in", mrkdown_in);
-
-        github.put("title","Github Diff");
-        github.put("title_link", getGithubLink(build));
-
-        message.put("text", this.escape(this.message));
-        message.put("mrkdwn_in", mrkdown_in);
-
-//        github.put("text", getGithubLink(build) + "\n" + getGithubLinkLastSuccess(build));
-//        github.put("mrkdwn_in", mrkdown_in);
-
-        JSONArray attachments = new JSONArray();
-        attachments.put(jenkins);
-        attachments.put(github);
-        attachments.put(message);
 
-        json.put("attachments",attachments);
+        List<String> admitted = new ArrayList<String>(endpoints.size());
+        for (String endpoint : endpoints) {
+            if (SlackSuppressor.admit(endpoint, channel, build.getProject().getFullName(), build.getResult().toString(), commitList)) {
+                admitted.add(endpoint);
+            }
+        }
+        if (admitted.isEmpty()) {
+            listener.getLogger().printf("repeated message held back from slack");
+            return true;
+        }
 
+        if (SlackCoalescer.isEnabled()) {
+            // a single attachment per build, so a merged message holds as many builds as possible
+            String combined = SlackPayloadWriter.attachmentJson(summary, color, summary, buildUrl,
+                    commitList + "\n" + text + (console != null ? "\n" + console : ""), true);
+            for (String endpoint : admitted) {
+                SlackCoalescer.add(endpoint, channel, summary, combined, build.getResult().isBetterOrEqualTo(Result.SUCCESS));
+            }
+            listener.getLogger().printf("message batched for slack");
+            return true;
+        }
 
-        new SlackPoster(endpoint).publish(json);
-        listener.getLogger().printf("message posted to slack");
+        String json = toPayload(channel, summary, color, title, buildUrl, commitList, getGithubLink(build), text, console);
+        descriptor.deliver(admitted, channel, json, BuildResultIndex.getPriority(build), build.getProject().getFullName(), listener);
         return true;
     }
 
-    public String escape(String string) {
-        string = string.replace("&", "&amp;");
-        string = string.replace("<", "&lt;");
-        string = string.replace(">", "&gt;");
-
-        return string;
-    }
-
-
-    private String getVersion(AbstractBuild<?, ?> build, BuildListener listener) {
-        try {
-        File versionFile = new File(build.getWorkspace().absolutize() + File.separator + ".version");
-            String version = readFile(versionFile.getAbsolutePath());
-            return version.trim();
-        } catch(Exception e) {
-            listener.getLogger().append("error reading version file: " + e.getMessage());
-            return "";
+    static String toPayload(String channel, String summary, String color, String title, String buildUrl,
+                            String commitList, String githubLink, String text, String console) {
+        SlackPayloadWriter writer = SlackPayloadWriter.begin()
+                .attachment("not printable", color, title, buildUrl, commitList, true)
+                .attachment("not printable", color, "Github Diff", githubLink, null, false)
+                .attachment("not printable", color, null, null, text, true);
+        if (console != null) {
+            writer.attachment("not printable", color, "Console Output", buildUrl + "console", console, true);
         }
-
+        return writer.end(channel, summary);
     }
 
-    String readFile(String fileName) throws IOException {
-        BufferedReader br = new BufferedReader(new FileReader(fileName));
-        try {
-            StringBuilder sb = new StringBuilder();
-            String line = br.readLine();
-
-            while (line != null) {
-                sb.append(line);
-                sb.append("\n");
-                line = br.readLine();
-            }
-            return sb.toString();
-        } finally {
-            br.close();
+    /**
+     * The attachments of {@link #toPayload} on their own, separated by commas.
+     */
+    static String toAttachments(String color, String title, String buildUrl, String commitList,
+                                String githubLink, String text, String console) {
+        StringBuilder attachments = new StringBuilder(1024)
+                .append(SlackPayloadWriter.attachmentJson("not printable", color, title, buildUrl, commitList, true)).append(',')
+                .append(SlackPayloadWriter.attachmentJson("not printable", color, "Github Diff", githubLink, null, false)).append(',')
+                .append(SlackPayloadWriter.attachmentJson("not printable", color, null, null, text, true));
+        if (console != null) {
+            attachments.append(',').append(SlackPayloadWriter.attachmentJson("not printable", color, "Console Output",
+                    buildUrl + "console", console, true));
         }
+        return attachments.toString();
     }
 
-    private String getGithubLinkLastSuccess(AbstractBuild<?,?> build) {
-        AbstractBuild<?,?> lastBuild = build.getProject().getLastSuccessfulBuild();
-        BuildData data = lastBuild.getAction(BuildData.class);
-
-        if(data == null) {
-
+    /**
+     * The last error-looking lines of the console log, or null if disabled or none match.
+     * Only the end of the log is read, however long the log is.
+     */
+    private String getConsoleExcerpt(AbstractBuild<?, ?> build, BuildListener listener) {
+        if (consoleLines <= 0) {
             return null;
         }
-
-        GitRepositoryBrowser repoBrowser = (GitRepositoryBrowser)lastBuild.getProject().getScm().getBrowser();
-        return repoBrowser.getRepoUrl() + "/commit/" + data.getLastBuiltRevision().getSha1String();
-
-    }
-
-    private String getGithubLink(AbstractBuild r) {
-
-        BuildData data = r.getAction(BuildData.class);
-
-        if(data == null) {
-
+        ConsoleTail tail = consoleTail;
+        if (tail == null) {
+            consoleTail = tail = new ConsoleTail(consoleLines, getConsolePatterns());
+        }
+        List<String> lines;
+        try {
+            lines = tail.read(build.getLogFile());
+        } catch (IOException e) {
+            listener.getLogger().append("error reading console log: " + e.getMessage());
             return null;
         }
-
-        GitRepositoryBrowser repoBrowser = (GitRepositoryBrowser)r.getProject().getScm().getBrowser();
-        return repoBrowser.getRepoUrl() + "/commit/" + data.getLastBuiltRevision().getSha1String();
-    }
-
-    static String getStatusMessage(AbstractBuild r) {
-        if (r.isBuilding()) {
-            return "Starting...";
+        if (lines.isEmpty()) {
+            return null;
         }
-        Result result = r.getResult();
-        Run previousBuild = r.getProject().getLastBuild().getPreviousBuild();
-        Result previousResult = (previousBuild != null) ? previousBuild.getResult() : Result.SUCCESS;
-        if (result == Result.SUCCESS && previousResult == Result.FAILURE) {
-            return "Back to normal";
+        StringBuilder excerpt = new StringBuilder("```");
+        for (String line : lines) {
+            excerpt.append(line).append('\n');
         }
-        if (result == Result.SUCCESS) {
-            return "Success";
+        excerpt.setLength(excerpt.length() - 1);
+        // cut before the closing fence so a long excerpt still renders as code
+        return SlackText.sanitize(excerpt.toString(), SlackText.MAX_FIELD_BYTES - 3) + "```";
+    }
+
+    /**
+     * Reads the version file on the node holding the workspace. The result is kept on the
+     * build, so later lookups for the same build cost no remoting round-trip.
+     */
+    private String getVersion(AbstractBuild<?, ?> build, BuildListener listener) {
+        VersionAction cached = build.getAction(VersionAction.class);
+        if (cached != null) {
+            return cached.getVersion();
         }
-        if (result == Result.FAILURE) {
-            return "Failure";
+        String version = "";
+        try {
+            FilePath workspace = build.getWorkspace();
+            if (workspace != null) {
+                version = workspace.child(getVersionFile()).act(new VersionFileReader(versionPattern));
+            }
+        } catch(Exception e) {
+            listener.getLogger().append("error reading version file: " + e.getMessage());
         }
-        if (result == Result.ABORTED) {
-            return "Aborted";
+        build.addAction(new VersionAction(version));
+        return version;
+    }
+
+    /**
+     * Link of the "Github Diff" attachment: on GitHub the commits since the last successful
+     * build, on other git browsers the commit that was built, otherwise nothing.
+     */
+    private String getGithubLink(AbstractBuild<?, ?> build) {
+        String sha = LastGoodShaIndex.getSha(build);
+        if (sha == null) {
+            return null;
         }
-        if (result == Result.NOT_BUILT) {
-            return "Not built";
+        RepositoryBrowser<?> browser = build.getProject().getScm().getEffectiveBrowser();
+        if (browser instanceof GithubWeb) {
+            String repoUrl = StringUtils.removeEnd(((GithubWeb) browser).getRepoUrl(), "/");
+            String lastGood = LastGoodShaIndex.getLastGoodSha(build);
+            if (lastGood != null && !lastGood.equals(sha)) {
+                return repoUrl + "/compare/" + lastGood + "..." + sha;
+            }
+            return repoUrl + "/commit/" + sha;
         }
-        if (result == Result.UNSTABLE) {
-            return "Unstable";
+        if (browser instanceof GitRepositoryBrowser && build.hasChangeSetComputed()) {
+            // other hosts lay out their URLs differently, so the browser links the commit itself
+            for (Object entry : build.getChangeSet()) {
+                if (entry instanceof GitChangeSet && sha.equals(((GitChangeSet) entry).getCommitId())) {
+                    try {
+                        URL link = ((GitRepositoryBrowser) browser).getChangeSetLink((GitChangeSet) entry);
+                        return link != null ? link.toString() : null;
+                    } catch (IOException e) {
+                        return null;
+                    }
+                }
+            }
         }
-        return "Unknown";
+        return null;
     }
 
     String getCommitList(AbstractBuild r) {
         if (!r.hasChangeSetComputed()) {
             return "No Changes.";
         }
-        ChangeLogSet changeSet = r.getChangeSet();
-        List<ChangeLogSet.Entry> entries = new LinkedList<ChangeLogSet.Entry>();
-        for (Object o : changeSet.getItems()) {
-            ChangeLogSet.Entry entry = (ChangeLogSet.Entry) o;
-            entries.add(entry);
-        }
-        if (entries.isEmpty()) {
-            return "No Changes.";
-        }
-        Set<String> commits = new HashSet<String>();
-        for (ChangeLogSet.Entry entry : entries) {
-            StringBuffer commit = new StringBuffer();
-            commit.append(entry.getMsg());
-            commit.append(" [").append(entry.getAuthor().getDisplayName()).append("]");
-            commits.add(commit.toString());
-        }
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("Changes:\n- ");
-        sb.append(StringUtils.join(commits, "\n- "));
-        return sb.toString();
+        DescriptorImpl descriptor = getDescriptor();
+        // iterating the change set directly avoids the array copy getItems() makes
+        return new CommitListSummarizer(descriptor.getMaxCommits(), descriptor.getMaxCommitBytes())
+                .summarize(r.getChangeSet());
     }
 
     private final String channel;
     private final String message;
+    private final boolean digest;
+    private final String versionFile;
+    private final String versionPattern;
+    private final int consoleLines;
+    private final String consolePatterns;
+    private transient volatile ConsoleTail consoleTail;
+    /** Compiled {@link #message}; the notifier is replaced whenever the job config is saved. */
+    private transient volatile MessageTemplate template;
 
     public String getChannel() {
         return channel;
@@ -234,17 +273,58 @@ public class SlackPostBuildNotifier extends Notifier {
         return message;
     }
 
+    public boolean isDigest() {
+        return digest;
+    }
+
+    public String getVersionFile() {
+        return StringUtils.isBlank(versionFile) ? ".version" : versionFile;
+    }
+
+    public String getVersionPattern() {
+        return versionPattern;
+    }
+
+    /**
+     * Lines of the console log attached to failure notifications, 0 to attach none.
+     */
+    public int getConsoleLines() {
+        return consoleLines;
+    }
+
+    public String getConsolePatterns() {
+        return consolePatterns == null ? ConsoleTail.DEFAULT_PATTERNS : consolePatterns;
+    }
+
+    private MessageTemplate getTemplate() {
+        MessageTemplate t = template;
+        if (t == null) {
+            template = t = MessageTemplate.compile(message);
+        }
+        return t;
+    }
+
     // Fields in config.jelly must match the parameter names in the "DataBoundConstructor"
     @DataBoundConstructor
-    public SlackPostBuildNotifier(String channel, String message) {
+    public SlackPostBuildNotifier(String channel, String message, boolean digest, String versionFile, String versionPattern,
+                                  int consoleLines, String consolePatterns) {
         this.channel = channel;
         this.message = message;
+        this.digest = digest;
+        this.versionFile = versionFile;
+        this.versionPattern = versionPattern;
+        this.consoleLines = consoleLines;
+        this.consolePatterns = consolePatterns;
     }
 
 
+    /**
+     * Nothing here depends on the previous build having finished its own notification,
+     * so concurrent builds of a job do not wait on each other.
+     */
     @Override
     public BuildStepMonitor getRequiredMonitorService() {
-        return BuildStepMonitor.BUILD;
+        return BuildStepMonitor.NONE;
     }
 
 
@@ -275,12 +355,20 @@ public class SlackPostBuildNotifier extends Notifier {
          * <p>
          * If you don't want fields to be persisted, use <tt>transient</tt>.
          */
+        private int coalesceWindow;
+        private int digestInterval;
+        private int maxCommits;
+        private int maxCommitBytes;
+        private int suppressWindow;
 
         /**
          * In order to load the persisted global configuration, you have to
          * call load() in the constructor.
          */
         public DescriptorImpl() {
+            load();
+            SlackCoalescer.configure(coalesceWindow);
+            SlackSuppressor.configure(suppressWindow);
         }
 
         public boolean isApplicable(Class<? extends AbstractProject> aClass) {
@@ -295,6 +383,52 @@ public class SlackPostBuildNotifier extends Notifier {
             return "Slack Post Build Notifier";
         }
 
+        @Override
+        public boolean configure(StaplerRequest req, JSONObject formData) throws FormException {
+            coalesceWindow = formData.optInt("coalesceWindow", 0);
+            digestInterval = formData.optInt("digestInterval", SlackDigest.DEFAULT_INTERVAL_MINUTES);
+            maxCommits = formData.optInt("maxCommits", CommitListSummarizer.DEFAULT_MAX_COMMITS);
+            maxCommitBytes = formData.optInt("maxCommitBytes", CommitListSummarizer.DEFAULT_MAX_BYTES);
+            suppressWindow = formData.optInt("suppressWindow", 0);
+            SlackCoalescer.configure(coalesceWindow);
+            SlackSuppressor.configure(suppressWindow);
+            save();
+            return super.configure(req,formData);
+        }
+
+        /**
+         * Seconds during which notifications for the same channel are merged into one message, 0 to disable.
+         */
+        public int getCoalesceWindow() {
+            return coalesceWindow;
+        }
+
+        /**
+         * Minutes between two digests for jobs notifying in digest mode.
+         */
+        public int getDigestInterval() {
+            return digestInterval > 0 ? digestInterval : SlackDigest.DEFAULT_INTERVAL_MINUTES;
+        }
+
+        public int getMaxCommits() {
+            return maxCommits > 0 ? maxCommits : CommitListSummarizer.DEFAULT_MAX_COMMITS;
+        }
+
+        public int getMaxCommitBytes() {
+            return maxCommitBytes > 0 ? maxCommitBytes : CommitListSummarizer.DEFAULT_MAX_BYTES;
+        }
+
+        /**
+         * Seconds during which repeated notifications and flapping jobs are held back, 0 to disable.
+         */
+        public int getSuppressWindow() {
+            return suppressWindow;
+        }
+
+        public String getDefaultConsolePatterns() {
+            return ConsoleTail.DEFAULT_PATTERNS;
+        }
+
     }
 
 }
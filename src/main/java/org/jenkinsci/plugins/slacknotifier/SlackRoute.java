@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.Extension;
+import hudson.model.AbstractDescribableImpl;
+import hudson.model.Descriptor;
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.plugins.slacknotifier.util.SlackRoutingTable;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One entry of the global routing table: channels matching a pattern are posted to one or
+ * more web hook endpoints, e.g. one per Slack workspace.
+ */
+public class SlackRoute extends AbstractDescribableImpl<SlackRoute> {
+
+    private final String channelPattern;
+    private final String endpoints;
+
+    @DataBoundConstructor
+    public SlackRoute(String channelPattern, String endpoints) {
+        this.channelPattern = channelPattern;
+        this.endpoints = endpoints;
+    }
+
+    public String getChannelPattern() {
+        return channelPattern;
+    }
+
+    /**
+     * Web hook endpoints, separated by whitespace or new lines.
+     */
+    public String getEndpoints() {
+        return endpoints;
+    }
+
+    SlackRoutingTable.Rule toRule() {
+        List<String> urls = new ArrayList<String>();
+        for (String url : StringUtils.split(StringUtils.defaultString(endpoints))) {
+            urls.add(url);
+        }
+        return new SlackRoutingTable.Rule(channelPattern, urls);
+    }
+
+    @Extension
+    public static class DescriptorImpl extends Descriptor<SlackRoute> {
+        @Override
+        public String getDisplayName() {
+            return "Slack route";
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.model.InvisibleAction;
+
+/**
+ * Remembers the version resolved for a build, so it is read from the workspace only once.
+ */
+public class VersionAction extends InvisibleAction {
+
+    private final String version;
+
+    public VersionAction(String version) {
+        this.version = version;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Per web hook circuit breaker. After a number of consecutive failures the circuit opens
+ * and posts fail fast; once the cool-down has elapsed a single probe is let through and
+ * its outcome decides whether the circuit closes again or stays open.
+ */
+public class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final int DEFAULT_COOL_DOWN_SECONDS = 30;
+
+    /** How long a refused request waits while the half-open probe is in flight. */
+    private static final long PROBE_WAIT_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    private static volatile int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    private static volatile long coolDownMillis = TimeUnit.SECONDS.toMillis(DEFAULT_COOL_DOWN_SECONDS);
+
+    private final String endpoint;
+    private final int threshold;
+    private final long coolDown;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    CircuitBreaker(String endpoint, int threshold, long coolDownMillis) {
+        this.endpoint = endpoint;
+        this.threshold = Math.max(1, threshold);
+        this.coolDown = Math.max(0, coolDownMillis);
+    }
+
+    public static CircuitBreaker forEndpoint(String endpoint) {
+        CircuitBreaker breaker = breakers.get(endpoint);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(endpoint, failureThreshold, coolDownMillis);
+            breaker = breakers.putIfAbsent(endpoint, created);
+            if (breaker == null) {
+                breaker = created;
+            }
+        }
+        return breaker;
+    }
+
+    /**
+     * Applies new global settings; existing breakers are discarded so they pick them up.
+     */
+    public static void configure(int threshold, int coolDownSeconds) {
+        long millis = TimeUnit.SECONDS.toMillis(coolDownSeconds);
+        if (failureThreshold != threshold || coolDownMillis != millis) {
+            failureThreshold = threshold;
+            coolDownMillis = millis;
+            breakers.clear();
+        }
+    }
+
+    /**
+     * @return true if a request may be sent now. A true result while the circuit is open
+     *      marks that request as the half-open probe.
+     */
+    public synchronized boolean allowRequest() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < coolDown) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    /**
+     * @return how long a request refused by {@link #allowRequest()} should wait before trying
+     *      again: the rest of the cool-down, or a moment while the probe is in flight
+     */
+    public synchronized long getRetryDelayMillis() {
+        if (state == State.OPEN) {
+            return Math.max(0, openedAt + coolDown - System.currentTimeMillis());
+        }
+        return PROBE_WAIT_MILLIS;
+    }
+
+    /**
+     * @return how many endpoints are currently failing fast or probing
+     */
+    public static int getOpenCount() {
+        int open = 0;
+        for (CircuitBreaker breaker : breakers.values()) {
+            if (breaker.isOpen()) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    public synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.info("Slack endpoint " + endpoint + " is reachable again, closing circuit");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        probeInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= threshold)) {
+            logger.warning("Slack endpoint " + endpoint + " failed " + consecutiveFailures
+                    + " times in a row, failing fast for " + coolDown + "ms");
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Records a request that failed before reaching the endpoint, e.g. waiting for a pooled
+     * connection. It says nothing about the endpoint, so only a probe it held is given back.
+     */
+    public synchronized void recordInconclusive() {
+        probeInFlight = false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+}
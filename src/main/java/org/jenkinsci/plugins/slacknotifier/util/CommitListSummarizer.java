@@ -0,0 +1,72 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Renders a change set as an escaped commit list in a single pass over its entries, keeping commit
+ * order. Listing stops after a number of commits or a UTF-8 byte budget, whichever comes
+ * first, and the rest are summarised as "...and N more by M authors". Memory is bounded by
+ * the limits, not by the size of the change set.
+ */
+public class CommitListSummarizer {
+
+    public static final int DEFAULT_MAX_COMMITS = 20;
+    public static final int DEFAULT_MAX_BYTES = 4000;
+
+    /** Distinct authors of the unlisted commits are counted up to this many. */
+    private static final int MAX_COUNTED_AUTHORS = 1000;
+
+    private final int maxCommits;
+    private final int maxBytes;
+
+    public CommitListSummarizer(int maxCommits, int maxBytes) {
+        this.maxCommits = maxCommits;
+        this.maxBytes = maxBytes;
+    }
+
+    public String summarize(Iterable<?> items) {
+        StringBuilder sb = new StringBuilder("Changes:");
+        int bytes = sb.length();
+        Set<String> listed = new HashSet<String>();
+        Set<String> moreAuthors = new HashSet<String>();
+        boolean full = false;
+        int total = 0;
+        int more = 0;
+        for (Object o : items) {
+            ChangeLogSet.Entry entry = (ChangeLogSet.Entry) o;
+            total++;
+            User author = entry.getAuthor();
+            if (!full) {
+                String commit = SlackText.escape(entry.getMsg() + " [" + author.getDisplayName() + "]");
+                if (!listed.add(commit)) {
+                    continue;
+                }
+                int commitBytes = SlackText.utf8Length(commit) + 3;
+                if (listed.size() <= maxCommits && bytes + commitBytes <= maxBytes) {
+                    sb.append("\n- ").append(commit);
+                    bytes += commitBytes;
+                    continue;
+                }
+                full = true;
+                listed = null;
+            }
+            more++;
+            if (moreAuthors.size() < MAX_COUNTED_AUTHORS) {
+                moreAuthors.add(author.getId());
+            }
+        }
+        if (total == 0) {
+            return "No Changes.";
+        }
+        if (more > 0) {
+            sb.append("\n...and ").append(more).append(" more by ")
+                    .append(moreAuthors.size() < MAX_COUNTED_AUTHORS ? String.valueOf(moreAuthors.size()) : MAX_COUNTED_AUTHORS + "+")
+                    .append(moreAuthors.size() == 1 ? " author" : " authors");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,178 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.console.ConsoleNote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Picks the last lines of a console log that look like errors, reading the file backwards
+ * from its end with a fixed buffer. At most {@value #MAX_SCAN_BYTES} bytes are read, so the
+ * cost is the same for a 1KB and a 1GB log, and memory holds one buffer, one line and the
+ * lines returned.
+ */
+public final class ConsoleTail {
+
+    public static final int DEFAULT_LINES = 20;
+    public static final String DEFAULT_PATTERNS = "error\nexception\nfailed\nfatal";
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_LINE_BYTES = 1024;
+    private static final long MAX_SCAN_BYTES = 1024 * 1024;
+
+    private final int maxLines;
+    private final List<Pattern> patterns;
+
+    /**
+     * @param patterns
+     *      regular expressions separated by new lines, matched case-insensitively anywhere in
+     *      a line; a line is kept if any matches, every line is kept if there are none
+     */
+    public ConsoleTail(int maxLines, String patterns) {
+        this.maxLines = maxLines;
+        List<Pattern> compiled = new ArrayList<Pattern>();
+        if (patterns != null) {
+            for (String pattern : patterns.split("\n")) {
+                pattern = pattern.trim();
+                if (pattern.length() == 0) {
+                    continue;
+                }
+                try {
+                    compiled.add(Pattern.compile(pattern, Pattern.CASE_INSENSITIVE));
+                } catch (PatternSyntaxException e) {
+                    compiled.add(Pattern.compile(Pattern.quote(pattern), Pattern.CASE_INSENSITIVE));
+                }
+            }
+        }
+        this.patterns = compiled;
+    }
+
+    /**
+     * @return the matching lines, oldest first, or none if the log cannot be read
+     */
+    public List<String> read(File log) throws IOException {
+        if (maxLines <= 0 || log == null || !log.isFile()) {
+            return Collections.emptyList();
+        }
+        RandomAccessFile file = new RandomAccessFile(log, "r");
+        try {
+            return read(file.getChannel());
+        } finally {
+            file.close();
+        }
+    }
+
+    private List<String> read(FileChannel channel) throws IOException {
+        Deque<String> found = new ArrayDeque<String>(maxLines);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] chunk = buffer.array();
+        Line line = new Line();
+        long position = channel.size();
+        long scanned = 0;
+        while (position > 0 && scanned < MAX_SCAN_BYTES) {
+            int n = (int) Math.min(BUFFER_SIZE, position);
+            position -= n;
+            scanned += n;
+            buffer.clear().limit(n);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("log shrank while being read");
+                }
+            }
+            int end = n;
+            for (int i = n - 1; i >= 0; i--) {
+                if (chunk[i] == '\n') {
+                    line.prepend(chunk, i + 1, end);
+                    keep(line.take(), found);
+                    if (found.size() >= maxLines) {
+                        return new ArrayList<String>(found);
+                    }
+                    end = i;
+                }
+            }
+            line.prepend(chunk, 0, end);
+        }
+        if (position == 0) {
+            // the first line of the file has no new line before it
+            keep(line.take(), found);
+        }
+        return new ArrayList<String>(found);
+    }
+
+    private void keep(String line, Deque<String> found) {
+        if (line == null || found.size() >= maxLines) {
+            return;
+        }
+        line = ConsoleNote.removeNotes(line).trim();
+        if (line.length() == 0) {
+            return;
+        }
+        if (patterns.isEmpty()) {
+            found.addFirst(line);
+            return;
+        }
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(line).find()) {
+                found.addFirst(line);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The line being read, filled from its end towards its start. Bytes beyond
+     * {@value #MAX_LINE_BYTES} from the end of the line are dropped.
+     */
+    private static final class Line {
+        private final byte[] bytes = new byte[MAX_LINE_BYTES];
+        private int start = MAX_LINE_BYTES;
+        private boolean truncated;
+
+        void prepend(byte[] src, int from, int to) {
+            int length = to - from;
+            if (length > start) {
+                truncated = length > 0;
+                length = start;
+                from = to - length;
+            }
+            start -= length;
+            System.arraycopy(src, from, bytes, start, length);
+        }
+
+        /**
+         * @return the line, or null if it is empty, and starts a new one
+         */
+        String take() {
+            String line = null;
+            if (truncated) {
+                // the cut may have split a character, skip its continuation bytes
+                while (start < MAX_LINE_BYTES && (bytes[start] & 0xC0) == 0x80) {
+                    start++;
+                }
+            }
+            if (start < MAX_LINE_BYTES) {
+                try {
+                    line = new String(bytes, start, MAX_LINE_BYTES - start, "UTF-8");
+                } catch (java.io.UnsupportedEncodingException e) {
+                    throw new AssertionError(e);
+                }
+                if (truncated) {
+                    line = "..." + line;
+                }
+            }
+            start = MAX_LINE_BYTES;
+            truncated = false;
+            return line;
+        }
+    }
+}
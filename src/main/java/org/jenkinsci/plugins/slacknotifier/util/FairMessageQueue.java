@@ -0,0 +1,332 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of {@link SlackMessage}s that hands them out by {@link SlackMessage.Priority}
+ * and, within a priority, round robin per job, so a job that queues hundreds of messages
+ * does not hold back everyone else.
+ *
+ * <p>
+ * Priorities are served in weighted rounds: up to 8 {@code HIGH}, 3 {@code NORMAL} and 1
+ * {@code LOW} message per round, higher classes first. A busy class goes first without
+ * starving the others. Every operation is O(1) in the number of queued messages and jobs,
+ * except that a poll passes over jobs whose next message is for an endpoint whose
+ * {@link Bulkheads bulkhead} is full, as long as some other job's message can go instead.
+ *
+ * <p>
+ * Once {@link #close() closed}, the queue refuses every message, so the caller can hand it
+ * to whoever took over.
+ */
+final class FairMessageQueue {
+
+    private static final SlackMessage.Priority[] PRIORITIES = SlackMessage.Priority.values();
+
+    private final int capacity;
+    private final ClassQueue[] classes = new ClassQueue[PRIORITIES.length];
+    private final int[] credits = new int[PRIORITIES.length];
+    private int count;
+    private boolean closed;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    FairMessageQueue(int capacity) {
+        this.capacity = capacity;
+        for (SlackMessage.Priority priority : PRIORITIES) {
+            classes[priority.ordinal()] = new ClassQueue();
+            credits[priority.ordinal()] = priority.weight;
+        }
+    }
+
+    /**
+     * @return false if the queue is full or closed
+     */
+    boolean offer(SlackMessage message) {
+        lock.lock();
+        try {
+            if (closed || count >= capacity) {
+                return false;
+            }
+            enqueue(message);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for room if the queue is full.
+     *
+     * @return false if the queue is, or got, closed
+     */
+    boolean put(SlackMessage message) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (!closed && count >= capacity) {
+                notFull.await();
+            }
+            if (closed) {
+                return false;
+            }
+            enqueue(message);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Puts back a message that was taken earlier, e.g. to retry it. Capacity does not apply,
+     * the queue may exceed it until it drains; new messages wait for room meanwhile.
+     *
+     * @return false only if the queue is closed
+     */
+    boolean requeue(SlackMessage message) {
+        lock.lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            enqueue(message);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Refuses every message from now on and wakes up whoever waits for room.
+     *
+     * @return the messages that were still queued, highest priority first
+     */
+    List<SlackMessage> close() {
+        lock.lock();
+        try {
+            closed = true;
+            List<SlackMessage> remainder = new ArrayList<SlackMessage>(count);
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                while (!classes[i].isEmpty()) {
+                    remainder.add(dequeue(i));
+                }
+            }
+            notFull.signalAll();
+            return remainder;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next message in scheduling order, waiting up to {@code timeout} for one.
+     */
+    SlackMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return poll(timeout, unit, null);
+    }
+
+    /**
+     * Takes the next message in scheduling order whose endpoint has room in its bulkhead,
+     * waiting up to {@code timeout} for one, and enters the bulkhead for it. Jobs passed over
+     * keep their turn and their order. When every queued message is for a full bulkhead,
+     * nobody else is waiting, so the next message goes anyway.
+     */
+    SlackMessage poll(long timeout, TimeUnit unit, Bulkheads bulkheads) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            int priority = next();
+            SlackMessage message = classes[priority].peek();
+            if (bulkheads != null && bulkheads.isFull(message.getWebHookEndpoint())) {
+                for (int i = 0; i < PRIORITIES.length; i++) {
+                    SlackMessage other = classes[i].pollFirstWithRoom(bulkheads);
+                    if (other != null) {
+                        if (i != priority) {
+                            // the share goes to the class actually served
+                            credits[priority]++;
+                            credits[i] = Math.max(0, credits[i] - 1);
+                        }
+                        count--;
+                        notFull.signal();
+                        bulkheads.enter(other.getWebHookEndpoint());
+                        return other;
+                    }
+                }
+            }
+            message = dequeue(priority);
+            if (bulkheads != null) {
+                bulkheads.enter(message.getWebHookEndpoint());
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the message to give up first when the queue overflows: the oldest message of the
+     * job next in line in the lowest non-empty priority.
+     */
+    SlackMessage pollForEviction() {
+        lock.lock();
+        try {
+            for (int i = PRIORITIES.length - 1; i >= 0; i--) {
+                if (!classes[i].isEmpty()) {
+                    return dequeue(i);
+                }
+            }
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size(SlackMessage.Priority priority) {
+        lock.lock();
+        try {
+            return classes[priority.ordinal()].size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(SlackMessage message) {
+        classes[message.getPriority().ordinal()].add(message);
+        count++;
+        notEmpty.signal();
+    }
+
+    private SlackMessage dequeue(int priority) {
+        SlackMessage message = classes[priority].poll();
+        count--;
+        notFull.signal();
+        return message;
+    }
+
+    /**
+     * @return the priority to serve next; the queue must not be empty
+     */
+    private int next() {
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < PRIORITIES.length; i++) {
+                if (credits[i] > 0 && !classes[i].isEmpty()) {
+                    credits[i]--;
+                    return i;
+                }
+            }
+            // every class with messages spent its share: start a new round
+            for (SlackMessage.Priority priority : PRIORITIES) {
+                credits[priority.ordinal()] = priority.weight;
+            }
+        }
+        throw new IllegalStateException("queue is empty");
+    }
+
+    /**
+     * Limits how many workers an endpoint may hold while messages for others are waiting.
+     * Called with the queue's lock held, so it must not block.
+     */
+    interface Bulkheads {
+        boolean isFull(String endpoint);
+
+        /**
+         * Called for every message {@link #poll(long, TimeUnit, Bulkheads) polled}; the
+         * caller leaves the bulkhead once done with it.
+         */
+        void enter(String endpoint);
+    }
+
+    /**
+     * Messages of one priority: a FIFO per job, and the jobs with messages in round robin order.
+     */
+    private static final class ClassQueue {
+        private final Map<String, ArrayDeque<SlackMessage>> byJob = new HashMap<String, ArrayDeque<SlackMessage>>();
+        private final ArrayDeque<String> turns = new ArrayDeque<String>();
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(SlackMessage message) {
+            String job = message.getJobKey();
+            ArrayDeque<SlackMessage> messages = byJob.get(job);
+            if (messages == null) {
+                messages = new ArrayDeque<SlackMessage>();
+                byJob.put(job, messages);
+                turns.addLast(job);
+            }
+            messages.addLast(message);
+            size++;
+        }
+
+        SlackMessage peek() {
+            return byJob.get(turns.peekFirst()).peekFirst();
+        }
+
+        SlackMessage poll() {
+            return take(turns.pollFirst());
+        }
+
+        /**
+         * Takes the first message, in turn order, of a job whose next message has room in its
+         * bulkhead; only ever a job's oldest message, so each job stays in order.
+         *
+         * @return null if there is none
+         */
+        SlackMessage pollFirstWithRoom(Bulkheads bulkheads) {
+            for (Iterator<String> it = turns.iterator(); it.hasNext(); ) {
+                String job = it.next();
+                if (!bulkheads.isFull(byJob.get(job).peekFirst().getWebHookEndpoint())) {
+                    it.remove();
+                    return take(job);
+                }
+            }
+            return null;
+        }
+
+        private SlackMessage take(String job) {
+            ArrayDeque<SlackMessage> messages = byJob.get(job);
+            SlackMessage message = messages.pollFirst();
+            if (messages.isEmpty()) {
+                byJob.remove(job);
+            } else {
+                turns.addLast(job);
+            }
+            size--;
+            return message;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.util.VariableResolver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A message with <tt>${NAME}</tt> placeholders, split once into literal and variable parts
+ * so that rendering it for a build is a single pass over those parts, without regular
+ * expressions. Placeholders whose variable is unknown are kept as written.
+ *
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class MessageTemplate {
+
+    private static final MessageTemplate EMPTY = new MessageTemplate("", new String[0], new String[0]);
+
+    private final String source;
+    /** Literal text before each variable, plus the trailing literal at the end. */
+    private final String[] literals;
+    private final String[] variables;
+
+    private MessageTemplate(String source, String[] literals, String[] variables) {
+        this.source = source;
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    public static MessageTemplate compile(String source) {
+        if (source == null || source.length() == 0) {
+            return EMPTY;
+        }
+        List<String> literals = new ArrayList<String>();
+        List<String> variables = new ArrayList<String>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < source.length()) {
+            int start = source.indexOf("${", i);
+            int end = start < 0 ? -1 : source.indexOf('}', start + 2);
+            if (end < 0) {
+                break;
+            }
+            literal.append(source, i, start);
+            if (end == start + 2) {
+                // "${}" is not a placeholder
+                literal.append("${}");
+            } else {
+                literals.add(literal.toString());
+                variables.add(source.substring(start + 2, end));
+                literal.setLength(0);
+            }
+            i = end + 1;
+        }
+        literal.append(source, i, source.length());
+        literals.add(literal.toString());
+        return new MessageTemplate(source, literals.toArray(new String[literals.size()]),
+                variables.toArray(new String[variables.size()]));
+    }
+
+    public String render(VariableResolver<String> resolver) {
+        if (variables.length == 0) {
+            return literals[0];
+        }
+        StringBuilder sb = new StringBuilder(source.length() + 64);
+        for (int i = 0; i < variables.length; i++) {
+            sb.append(literals[i]);
+            String value = resolver.resolve(variables[i]);
+            if (value != null) {
+                sb.append(value);
+            } else {
+                sb.append("${").append(variables[i]).append('}');
+            }
+        }
+        sb.append(literals[variables.length]);
+        return sb.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting how fast messages go to one channel of one web hook. Slack accepts
+ * roughly one message per second per channel with short bursts above that.
+ *
+ * <p>
+ * A caller that has to wait is given the next free slot, so throttled messages wait one
+ * after the other instead of all waking up for the same token.
+ */
+public class RateLimiter {
+
+    public static final double DEFAULT_PERMITS_PER_SECOND = 1.0;
+    public static final int DEFAULT_BURST = 3;
+
+    private static final ConcurrentMap<String, RateLimiter> limiters = new ConcurrentHashMap<String, RateLimiter>();
+
+    private final double permitsPerNano;
+    private final double capacity;
+
+    private double tokens;
+    /** When the tokens were counted, or when the last reserved slot is, if later than now. */
+    private long nextFree;
+    private long pausedUntil;
+
+    RateLimiter(double permitsPerSecond, int burst) {
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = Math.max(1, burst);
+        this.tokens = capacity;
+        this.nextFree = System.nanoTime();
+        this.pausedUntil = nextFree;
+    }
+
+    public static RateLimiter forChannel(String endpoint, String channel) {
+        String key = endpoint + "#" + channel;
+        RateLimiter limiter = limiters.get(key);
+        if (limiter == null) {
+            RateLimiter created = new RateLimiter(DEFAULT_PERMITS_PER_SECOND, DEFAULT_BURST);
+            limiter = limiters.putIfAbsent(key, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Takes a token if one is available, and otherwise reserves the next free slot. Never blocks.
+     *
+     * @return 0 if a token was taken, otherwise how many milliseconds until the reserved slot;
+     *      the caller must then go ahead at that time without acquiring again
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        if (now - nextFree > 0) {
+            tokens = Math.min(capacity, tokens + (now - nextFree) * permitsPerNano);
+            nextFree = now;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        nextFree += (long) Math.ceil((1 - tokens) / permitsPerNano);
+        tokens = 0;
+        return toMillis(nextFree - now);
+    }
+
+    /**
+     * @return whether a slot reserved earlier fell into a {@link #pause}, so it must not be used
+     */
+    public synchronized boolean isPaused() {
+        return System.nanoTime() - pausedUntil < 0;
+    }
+
+    /**
+     * Stops handing out tokens for the given time, e.g. as instructed by a Retry-After header.
+     */
+    public synchronized void pause(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if (until - pausedUntil > 0) {
+            pausedUntil = until;
+        }
+        if (pausedUntil - nextFree > 0) {
+            nextFree = pausedUntil;
+        }
+        tokens = 0;
+    }
+
+    private static long toMillis(long nanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos));
+    }
+}
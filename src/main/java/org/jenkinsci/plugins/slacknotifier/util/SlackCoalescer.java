@@ -0,0 +1,139 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Merges the notifications for one channel that arrive within a time window into a single
+ * Slack message: one summary line plus one attachment per build. Batches larger than
+ * {@value #MAX_ATTACHMENTS} attachments are split over several messages.
+ */
+public class SlackCoalescer {
+
+    public static final int MAX_ATTACHMENTS = 50;
+
+    private static final Logger logger = Logger.getLogger(SlackCoalescer.class.getName());
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "SlackCoalescer"));
+    private static final Map<String, Batch> batches = new HashMap<String, Batch>();
+    private static volatile long windowMillis;
+
+    private SlackCoalescer() {
+    }
+
+    public static void configure(int windowSeconds) {
+        windowMillis = TimeUnit.SECONDS.toMillis(Math.max(0, windowSeconds));
+    }
+
+    public static boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    /**
+     * Adds one build to the batch of its channel, opening a new batch (and scheduling its
+     * flush) if there is none.
+     *
+     * @param summary
+     *      text of the message if the batch ends up holding this build only
+     * @param attachment
+     *      the build's attachment, serialized with {@link SlackPayloadWriter#attachmentJson}
+     * @param success
+     *      whether the build counts as successful in the summary line
+     */
+    public static void add(String endpoint, String channel, String summary, String attachment, boolean success) {
+        final String key = endpoint + "#" + channel;
+        synchronized (batches) {
+            Batch batch = batches.get(key);
+            if (batch == null) {
+                batch = new Batch(endpoint, channel, summary);
+                batches.put(key, batch);
+                flusher.schedule(new Runnable() {
+                    public void run() {
+                        flush(key);
+                    }
+                }, windowMillis, TimeUnit.MILLISECONDS);
+            }
+            batch.add(attachment, success);
+        }
+    }
+
+    /**
+     * Sends every open batch right away, e.g. because Jenkins is shutting down.
+     */
+    public static void flushAll() {
+        List<Batch> pending;
+        synchronized (batches) {
+            pending = new ArrayList<Batch>(batches.values());
+            batches.clear();
+        }
+        for (Batch batch : pending) {
+            batch.send();
+        }
+    }
+
+    private static void flush(String key) {
+        Batch batch;
+        synchronized (batches) {
+            batch = batches.remove(key);
+        }
+        if (batch != null) {
+            batch.send();
+        }
+    }
+
+    private static final class Batch {
+        private final String endpoint;
+        private final String channel;
+        private final String firstSummary;
+        private final List<String> attachments = new ArrayList<String>();
+        private int builds;
+        private int failed;
+
+        Batch(String endpoint, String channel, String firstSummary) {
+            this.endpoint = endpoint;
+            this.channel = channel;
+            this.firstSummary = firstSummary;
+        }
+
+        void add(String attachment, boolean success) {
+            builds++;
+            if (!success) {
+                failed++;
+            }
+            attachments.add(attachment);
+        }
+
+        void send() {
+            int parts = Math.max(1, (attachments.size() + MAX_ATTACHMENTS - 1) / MAX_ATTACHMENTS);
+            String summary = builds == 1 ? firstSummary
+                    : builds + " builds: " + (builds - failed) + " successful, " + failed + " failed";
+            for (int part = 0; part < parts; part++) {
+                SlackPayloadWriter writer = SlackPayloadWriter.begin();
+                int end = Math.min(attachments.size(), (part + 1) * MAX_ATTACHMENTS);
+                for (String attachment : attachments.subList(part * MAX_ATTACHMENTS, end)) {
+                    writer.rawAttachment(attachment);
+                }
+                String json = writer.end(channel, parts == 1 ? summary : summary + " (" + (part + 1) + "/" + parts + ")");
+                try {
+                    // never wait for room on the flusher, or one full queue stalls every channel's batch
+                    SlackDeliveryQueue.getInstance().submit(new SlackMessage(endpoint, channel, json,
+                            failed > 0 ? SlackMessage.Priority.HIGH : SlackMessage.Priority.LOW, channel));
+                } catch (InterruptedException e) {
+                    logger.log(Level.WARNING, "Interrupted while queueing coalesced Slack message", e);
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+}
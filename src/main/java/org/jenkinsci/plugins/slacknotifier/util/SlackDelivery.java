@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tracks the messages of one notification, usually one per endpoint, until each was
+ * delivered or given up, so a caller that did not wait for them can find out later.
+ *
+ * <p>
+ * The last {@value #MAX_TRACKED} notifications can be looked up by id. Nothing is kept
+ * across restarts.
+ */
+public final class SlackDelivery implements SlackMessage.Callback {
+
+    static final int MAX_TRACKED = 10000;
+
+    private static final Map<String, SlackDelivery> tracked = new LinkedHashMap<String, SlackDelivery>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SlackDelivery> eldest) {
+            return size() > MAX_TRACKED;
+        }
+    };
+
+    private final String id = UUID.randomUUID().toString();
+    // guarded by this
+    private int remaining;
+    private boolean delivered = true;
+    private List<SlackMessage.Callback> waiters = new ArrayList<SlackMessage.Callback>(1);
+
+    private SlackDelivery(int messages) {
+        this.remaining = messages;
+        if (messages == 0) {
+            delivered = false;
+            waiters = null;
+        }
+    }
+
+    /**
+     * Starts tracking the messages. Call before they are queued, so none can end untracked.
+     */
+    public static SlackDelivery track(List<SlackMessage> messages) {
+        SlackDelivery delivery = new SlackDelivery(messages.size());
+        for (SlackMessage message : messages) {
+            message.setCallback(delivery);
+        }
+        synchronized (tracked) {
+            tracked.put(delivery.id, delivery);
+        }
+        return delivery;
+    }
+
+    /**
+     * @return the notification, or null if it is no longer tracked
+     */
+    public static SlackDelivery get(String id) {
+        synchronized (tracked) {
+            return tracked.get(id);
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void done(boolean delivered) {
+        List<SlackMessage.Callback> ready;
+        boolean all;
+        synchronized (this) {
+            this.delivered &= delivered;
+            if (--remaining > 0 || waiters == null) {
+                return;
+            }
+            ready = waiters;
+            waiters = null;
+            all = this.delivered;
+        }
+        for (SlackMessage.Callback waiter : ready) {
+            waiter.done(all);
+        }
+    }
+
+    /**
+     * Tells the callback, right away if the notification already ended, whether every
+     * message of the notification was delivered.
+     */
+    public void whenDone(SlackMessage.Callback callback) {
+        boolean all;
+        synchronized (this) {
+            if (waiters != null) {
+                waiters.add(callback);
+                return;
+            }
+            all = delivered;
+        }
+        callback.done(all);
+    }
+}
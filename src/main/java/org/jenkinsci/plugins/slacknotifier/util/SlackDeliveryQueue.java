@@ -0,0 +1,502 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.init.Terminator;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded in-memory queue of {@link SlackMessage}s drained by a small fixed pool of
+ * worker threads, so a build only pays for the enqueue and not for the Slack round-trip.
+ * Messages are served by priority and fairly between jobs, see {@link FairMessageQueue}.
+ *
+ * <p>
+ * Every endpoint is a bulkhead: while messages for other endpoints are waiting, it may hold
+ * all workers but one, so a slow Slack workspace cannot stall deliveries to the others.
+ *
+ * <p>
+ * Every delivery goes through the per channel {@link RateLimiter}. Messages that are
+ * throttled, or that failed in a way worth retrying, are put back on the queue later by a
+ * scheduler thread, so neither build threads nor workers ever sleep.
+ */
+public class SlackDeliveryQueue {
+
+    /**
+     * What {@link #offer(SlackMessage)} does when the queue is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait until a worker frees a slot. */
+        BLOCK,
+        /** Discard the oldest message of the lowest priority waiting. */
+        DROP_OLDEST,
+        /** Discard the message being offered. */
+        DROP_NEWEST
+    }
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final int DEFAULT_THREADS = 2;
+
+    private static final long POLL_INTERVAL_MILLIS = 500;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    /** Longest a build waits for a synchronous delivery to other endpoints. */
+    private static final long FAN_OUT_TIMEOUT_SECONDS = 60;
+
+    private static final int MAX_ATTEMPTS = 5;
+    /** Messages evicted at most to make room for one under {@link OverflowPolicy#DROP_OLDEST}. */
+    private static final int MAX_EVICTIONS = 3;
+    private static final long BASE_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(60);
+
+    private static final Logger logger = Logger.getLogger(SlackDeliveryQueue.class.getName());
+
+    private static final Random jitter = new Random();
+
+    // created on first use and dropped by shutdownInstance(), so Jenkins can start again in the same JVM
+    private static SlackDeliveryQueue instance;
+    private static ScheduledExecutorService retryScheduler;
+    private static ExecutorService fanOut;
+
+    private final int capacity;
+    private final int threads;
+    private final OverflowPolicy overflowPolicy;
+    private final FairMessageQueue queue;
+    private final ExecutorService workers;
+    private final EndpointBulkheads bulkheads = new EndpointBulkheads();
+    private volatile boolean shuttingDown;
+
+    SlackDeliveryQueue(int capacity, int threads, OverflowPolicy overflowPolicy) {
+        this.capacity = Math.max(1, capacity);
+        this.threads = Math.max(1, threads);
+        this.overflowPolicy = overflowPolicy != null ? overflowPolicy : OverflowPolicy.BLOCK;
+        this.queue = new FairMessageQueue(this.capacity);
+        this.workers = Executors.newFixedThreadPool(this.threads,
+                new NamingThreadFactory(new DaemonThreadFactory(), "SlackDeliveryQueue"));
+        for (int i = 0; i < this.threads; i++) {
+            workers.execute(new Worker());
+        }
+    }
+
+    public static synchronized SlackDeliveryQueue getInstance() {
+        if (instance == null) {
+            instance = new SlackDeliveryQueue(DEFAULT_CAPACITY, DEFAULT_THREADS, OverflowPolicy.BLOCK);
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the shared queue when the global configuration changes. The old queue is
+     * closed and the messages waiting in it move to the new one; whoever still offers to the
+     * old queue is forwarded too, so nothing is left behind once its workers exit.
+     */
+    public static synchronized void configure(int capacity, int threads, OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null) {
+            overflowPolicy = OverflowPolicy.BLOCK;
+        }
+        SlackDeliveryQueue previous = instance;
+        if (previous != null && previous.capacity == Math.max(1, capacity)
+                && previous.threads == Math.max(1, threads) && previous.overflowPolicy == overflowPolicy) {
+            return;
+        }
+        instance = new SlackDeliveryQueue(capacity, threads, overflowPolicy);
+        if (previous != null) {
+            previous.shuttingDown = true;
+            for (SlackMessage message : previous.queue.close()) {
+                instance.requeue(message);
+            }
+            previous.workers.shutdown();
+        }
+    }
+
+    private static synchronized ScheduledExecutorService retryScheduler() {
+        if (retryScheduler == null) {
+            retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "SlackDeliveryQueue retry"));
+        }
+        return retryScheduler;
+    }
+
+    private static synchronized ExecutorService fanOut() {
+        if (fanOut == null) {
+            fanOut = Executors.newCachedThreadPool(
+                    new NamingThreadFactory(new DaemonThreadFactory(), "SlackDeliveryQueue fan-out"));
+        }
+        return fanOut;
+    }
+
+    /**
+     * Drains the queue and stops every thread. The next use after this starts afresh, e.g.
+     * when Jenkins is restarted in the same JVM.
+     */
+    @Terminator
+    public static void shutdownInstance() throws InterruptedException {
+        SlackCoalescer.flushAll();
+        SlackDeliveryQueue queue;
+        synchronized (SlackDeliveryQueue.class) {
+            queue = instance;
+        }
+        if (queue != null) {
+            // stays the instance while it drains, so late offers are delivered inline
+            queue.shutdown(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        ScheduledExecutorService scheduler;
+        ExecutorService posts;
+        synchronized (SlackDeliveryQueue.class) {
+            if (instance == queue) {
+                instance = null;
+            }
+            scheduler = retryScheduler;
+            posts = fanOut;
+            retryScheduler = null;
+            fanOut = null;
+        }
+        if (posts != null) {
+            posts.shutdown();
+        }
+        int pending = scheduler != null ? scheduler.shutdownNow().size() : 0;
+        if (pending > 0) {
+            logger.warning(pending + " Slack messages waiting for a retry were not sent");
+        }
+        // anything still unacknowledged is resent from the outbox on the next start
+        SlackOutbox.shutdown();
+        SlackHttpClient.shutdown();
+    }
+
+    /**
+     * Queues a message for delivery, applying the {@link OverflowPolicy} when the queue is full.
+     *
+     * @return false if the message was dropped instead of queued
+     */
+    public boolean offer(SlackMessage message) throws InterruptedException {
+        if (shuttingDown) {
+            SlackDeliveryQueue current = getInstance();
+            if (current != this) {
+                return current.offer(message);
+            }
+            // Jenkins is going down; deliver inline rather than losing the message
+            deliverNow(message);
+            return true;
+        }
+        SlackOutbox.record(message);
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                if (!queue.offer(message)) {
+                    if (queue.isClosed()) {
+                        return getInstance().offer(message);
+                    }
+                    logger.warning("Slack delivery queue is full, dropping message to " + message.getWebHookEndpoint());
+                    drop(message);
+                    return false;
+                }
+                return true;
+            case DROP_OLDEST:
+                // other producers may take the freed slot, so give up after a few evictions
+                for (int i = 0; i < MAX_EVICTIONS; i++) {
+                    if (queue.offer(message)) {
+                        return true;
+                    }
+                    if (queue.isClosed()) {
+                        return getInstance().offer(message);
+                    }
+                    SlackMessage dropped = queue.pollForEviction();
+                    if (dropped != null) {
+                        logger.warning("Slack delivery queue is full, dropping oldest message to " + dropped.getWebHookEndpoint());
+                        drop(dropped);
+                    }
+                }
+                if (queue.offer(message)) {
+                    return true;
+                }
+                if (queue.isClosed()) {
+                    return getInstance().offer(message);
+                }
+                logger.warning("Slack delivery queue is full, dropping message to " + message.getWebHookEndpoint());
+                drop(message);
+                return false;
+            default:
+                if (!queue.put(message)) {
+                    // replaced while we waited for room
+                    return getInstance().offer(message);
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Queues a message without ever waiting for room, for callers that must not block, such
+     * as Pipeline steps. Under {@link OverflowPolicy#BLOCK} a full queue drops the message,
+     * as {@link OverflowPolicy#DROP_NEWEST} would.
+     *
+     * @return false if the message was dropped instead of queued
+     */
+    public boolean submit(SlackMessage message) throws InterruptedException {
+        if (overflowPolicy != OverflowPolicy.BLOCK || shuttingDown) {
+            return offer(message);
+        }
+        SlackOutbox.record(message);
+        if (!queue.offer(message)) {
+            if (queue.isClosed()) {
+                return getInstance().submit(message);
+            }
+            logger.warning("Slack delivery queue is full, dropping message to " + message.getWebHookEndpoint());
+            drop(message);
+            return false;
+        }
+        return true;
+    }
+
+    public int getDepth() {
+        return queue.size();
+    }
+
+    public int getDepth(SlackMessage.Priority priority) {
+        return queue.size(priority);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Stops accepting new work and waits for the workers to drain what is already queued.
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        shuttingDown = true;
+        workers.shutdown();
+        if (!workers.awaitTermination(timeout, unit)) {
+            logger.warning("Slack delivery queue did not drain in time, " + queue.size() + " messages were not sent");
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Posts the message from the calling thread if its channel has capacity. Throttled and
+     * retryable messages are handed to the retry scheduler instead of waiting here.
+     */
+    public void deliverNow(SlackMessage message) {
+        SlackOutbox.record(message);
+        attempt(message);
+    }
+
+    /**
+     * Posts the messages, usually one per endpoint, in parallel and waits for all of them, so
+     * the build waits for the slowest endpoint rather than for the sum of all of them. A
+     * failure to one endpoint does not affect the others.
+     */
+    public void deliverNow(List<SlackMessage> messages) throws InterruptedException {
+        if (messages.size() == 1) {
+            deliverNow(messages.get(0));
+            return;
+        }
+        List<Future<?>> posts = new ArrayList<Future<?>>(messages.size());
+        for (final SlackMessage message : messages) {
+            try {
+                posts.add(fanOut().submit(new Runnable() {
+                    public void run() {
+                        deliverNow(message);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                deliverNow(message);
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(FAN_OUT_TIMEOUT_SECONDS);
+        for (Future<?> post : posts) {
+            try {
+                post.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "Error delivering Slack message", e.getCause());
+            } catch (TimeoutException e) {
+                logger.warning("Slack delivery is still running after " + FAN_OUT_TIMEOUT_SECONDS
+                        + " seconds, not waiting for it any longer");
+                return;
+            }
+        }
+    }
+
+    /**
+     * Queues every message, see {@link #offer(SlackMessage)}.
+     */
+    public void offer(List<SlackMessage> messages) throws InterruptedException {
+        for (SlackMessage message : messages) {
+            offer(message);
+        }
+    }
+
+    private void attempt(SlackMessage message) {
+        RateLimiter limiter = RateLimiter.forChannel(message.getWebHookEndpoint(), message.getChannel());
+        // a message back from a throttled attempt already holds its slot, unless Slack paused us since
+        if (!message.takeReservation() || limiter.isPaused()) {
+            long wait = limiter.tryAcquire();
+            if (wait > 0) {
+                message.setReserved();
+                requeueLater(message, wait);
+                return;
+            }
+        }
+        SlackPoster.Result result;
+        long start = System.nanoTime();
+        try {
+            SlackLiveMessage live = message.getLiveMessage();
+            result = live != null ? live.send(message.getWebApi())
+                    : new SlackPoster(message.getWebHookEndpoint()).publish(message.getPayload());
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Error delivering Slack message", e);
+            result = SlackPoster.Result.RETRY;
+        }
+        if (result.getOutcome() == SlackPoster.Result.Outcome.CIRCUIT_OPEN) {
+            // nothing was sent, so no attempt is used up: an outage longer than the backoff
+            // schedule must not drop, and acknowledge, the messages the outbox is there to keep
+            requeueLater(message, result.getRetryAfterMillis());
+            return;
+        }
+        SlackMetrics.recordPostLatency(message.getWebHookEndpoint(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (result.getOutcome() == SlackPoster.Result.Outcome.DELIVERED) {
+            SlackMetrics.recordSent();
+        } else {
+            SlackMetrics.recordFailure();
+        }
+        switch (result.getOutcome()) {
+            case DELIVERED:
+                SlackOutbox.acknowledge(message);
+                message.done(true);
+                return;
+            case RATE_LIMITED:
+                limiter.pause(result.getRetryAfterMillis());
+                retry(message, result.getRetryAfterMillis());
+                return;
+            case RETRY:
+                retry(message, backoff(message.getAttempts()));
+                return;
+            default:
+                drop(message);
+        }
+    }
+
+    private void retry(SlackMessage message, long delayMillis) {
+        if (message.recordAttempt() >= MAX_ATTEMPTS) {
+            logger.warning("Giving up on Slack message to " + message.getWebHookEndpoint() + " after "
+                    + message.getAttempts() + " attempts");
+            drop(message);
+            return;
+        }
+        SlackMetrics.recordRetry();
+        requeueLater(message, delayMillis);
+    }
+
+    /**
+     * Exponential backoff with jitter: a random delay between half and all of
+     * {@code BASE_BACKOFF_MILLIS * 2^attempts}, capped at {@code MAX_BACKOFF_MILLIS}.
+     */
+    static long backoff(int attempts) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempts, 16));
+        long half = ceiling / 2;
+        synchronized (jitter) {
+            return half + (long) (jitter.nextDouble() * (ceiling - half));
+        }
+    }
+
+    private static void requeueLater(final SlackMessage message, long delayMillis) {
+        try {
+            retryScheduler().schedule(new Runnable() {
+                public void run() {
+                    getInstance().requeue(message);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // left unacknowledged in the outbox, if enabled, so it is resent after the restart
+            logger.warning("Slack delivery is shutting down, dropping message to " + message.getWebHookEndpoint());
+            SlackMetrics.recordDrop();
+            message.done(false);
+        }
+    }
+
+    /**
+     * Queues a message recovered from the {@link SlackOutbox}, without waiting for room.
+     */
+    void resume(SlackMessage message) {
+        requeue(message);
+    }
+
+    private void requeue(SlackMessage message) {
+        // the message was admitted once already: it goes back even over capacity, so neither
+        // the scheduler thread blocks nor a throttled message is lost to new work
+        if (!queue.requeue(message)) {
+            getInstance().requeue(message);
+        }
+    }
+
+    private static void drop(SlackMessage message) {
+        SlackMetrics.recordDrop();
+        SlackOutbox.acknowledge(message);
+        message.done(false);
+    }
+
+    /**
+     * Counts the workers busy with each endpoint, so the {@link FairMessageQueue} hands the
+     * last spare worker to another endpoint whenever one has messages waiting.
+     */
+    private final class EndpointBulkheads implements FairMessageQueue.Bulkheads {
+        private final ConcurrentMap<String, AtomicInteger> busy = new ConcurrentHashMap<String, AtomicInteger>();
+
+        public boolean isFull(String endpoint) {
+            AtomicInteger workers = busy.get(endpoint);
+            return workers != null && workers.get() >= Math.max(1, threads - 1);
+        }
+
+        public void enter(String endpoint) {
+            AtomicInteger workers = busy.get(endpoint);
+            if (workers == null) {
+                AtomicInteger created = new AtomicInteger();
+                workers = busy.putIfAbsent(endpoint, created);
+                if (workers == null) {
+                    workers = created;
+                }
+            }
+            workers.incrementAndGet();
+        }
+
+        void leave(String endpoint) {
+            busy.get(endpoint).decrementAndGet();
+        }
+    }
+
+    private class Worker implements Runnable {
+        public void run() {
+            while (true) {
+                SlackMessage message;
+                try {
+                    message = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS, bulkheads);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (message != null) {
+                    try {
+                        attempt(message);
+                    } finally {
+                        bulkheads.leave(message.getWebHookEndpoint());
+                    }
+                } else if (shuttingDown) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.Util;
+import hudson.model.Result;
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per channel roll-up of build results, sent as one message every digest period instead of
+ * one message per build. Recording a build only updates a fixed size aggregate, so memory
+ * stays bounded however many builds run in a period.
+ */
+public class SlackDigest {
+
+    public static final int DEFAULT_INTERVAL_MINUTES = 60;
+
+    /** How many job names are listed per section before summarising the rest as a count. */
+    private static final int MAX_LISTED_JOBS = 20;
+
+    private static final Logger logger = Logger.getLogger(SlackDigest.class.getName());
+
+    private static final Map<String, Aggregate> aggregates = new HashMap<String, Aggregate>();
+
+    private SlackDigest() {
+    }
+
+    public static synchronized void record(String endpoint, String channel, String jobName, Result result,
+                                           boolean backToNormal, long durationMillis) {
+        String key = endpoint + "#" + channel;
+        Aggregate aggregate = aggregates.get(key);
+        if (aggregate == null) {
+            aggregate = new Aggregate(endpoint, channel);
+            aggregates.put(key, aggregate);
+        }
+        aggregate.add(jobName, result, backToNormal, durationMillis);
+    }
+
+    /**
+     * Sends one digest per channel that saw builds since the last call and starts over.
+     */
+    public static void send(int intervalMinutes) {
+        List<Aggregate> ready;
+        synchronized (SlackDigest.class) {
+            ready = new ArrayList<Aggregate>(aggregates.values());
+            aggregates.clear();
+        }
+        for (Aggregate aggregate : ready) {
+            try {
+                // never wait for room on the shared PeriodicWork timer
+                SlackDeliveryQueue.getInstance().submit(
+                        new SlackMessage(aggregate.endpoint, aggregate.channel, aggregate.toPayload(intervalMinutes),
+                                SlackMessage.Priority.NORMAL, "digest " + aggregate.channel));
+            } catch (InterruptedException e) {
+                logger.log(Level.WARNING, "Interrupted while queueing Slack digest", e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static final class Aggregate {
+        private final String endpoint;
+        private final String channel;
+        /** Indexed by {@link Result#ordinal}. */
+        private final int[] counts = new int[Result.ABORTED.ordinal + 1];
+        private final Set<String> failing = new LinkedHashSet<String>();
+        private final Set<String> backToNormal = new LinkedHashSet<String>();
+        private final DurationHistogram durations = new DurationHistogram();
+        private int moreFailing;
+        private int moreBackToNormal;
+        private int builds;
+
+        Aggregate(String endpoint, String channel) {
+            this.endpoint = endpoint;
+            this.channel = channel;
+        }
+
+        void add(String jobName, Result result, boolean isBackToNormal, long durationMillis) {
+            builds++;
+            if (result != null) {
+                counts[result.ordinal]++;
+            }
+            durations.add(durationMillis);
+            if (result != null && result.isWorseOrEqualTo(Result.FAILURE) && result != Result.NOT_BUILT
+                    && result != Result.ABORTED) {
+                moreFailing += addBounded(failing, jobName);
+            }
+            if (isBackToNormal) {
+                failing.remove(jobName);
+                moreBackToNormal += addBounded(backToNormal, jobName);
+            }
+        }
+
+        /**
+         * @return 1 if the set is full and the name was counted instead of listed
+         */
+        private static int addBounded(Set<String> names, String name) {
+            if (names.contains(name) || names.size() < MAX_LISTED_JOBS) {
+                names.add(name);
+                return 0;
+            }
+            return 1;
+        }
+
+        String toPayload(int intervalMinutes) {
+            List<String> parts = new ArrayList<String>();
+            for (Result result : new Result[] {Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED}) {
+                if (counts[result.ordinal] > 0) {
+                    parts.add(counts[result.ordinal] + " " + result.toString().toLowerCase());
+                }
+            }
+            StringBuilder text = new StringBuilder();
+            text.append("Digest for the last ").append(intervalMinutes).append(" minutes: ")
+                    .append(builds).append(" builds (").append(StringUtils.join(parts, ", ")).append(")");
+            text.append(", p50 ").append(Util.getTimeSpanString(durations.percentile(0.5)))
+                    .append(", p95 ").append(Util.getTimeSpanString(durations.percentile(0.95)));
+
+            SlackPayloadWriter writer = SlackPayloadWriter.begin();
+            if (!failing.isEmpty()) {
+                writer.attachment("Failing", "#CD0000", "Failing", null, list(failing, moreFailing), true);
+            }
+            if (!backToNormal.isEmpty()) {
+                writer.attachment("Back to normal", "#36a64f", "Back to normal", null, list(backToNormal, moreBackToNormal), true);
+            }
+            return writer.end(channel, text.toString());
+        }
+
+        private static String list(Set<String> jobs, int more) {
+            StringBuilder text = new StringBuilder("- ").append(SlackText.escape(StringUtils.join(jobs, "\n- ")));
+            if (more > 0) {
+                text.append("\n...and ").append(more).append(" more");
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Single threaded counterpart of {@link LatencyHistogram}, using the same buckets.
+     */
+    static final class DurationHistogram {
+        private final long[] buckets = new long[LatencyHistogram.BUCKETS];
+        private long count;
+
+        void add(long millis) {
+            buckets[LatencyHistogram.index(Math.max(0, millis))]++;
+            count++;
+        }
+
+        long percentile(double p) {
+            return LatencyHistogram.percentile(buckets, count, p);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.ProxyConfiguration;
+import jenkins.model.Jenkins;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Process-wide {@link HttpClient} shared by every {@link SlackPoster}. Connections to the
+ * web hook hosts are pooled and kept alive between messages, and the proxy settings are
+ * only rebuilt when the Jenkins proxy configuration changes. The pool is created on first
+ * use and again after a {@link #shutdown()}.
+ */
+public final class SlackHttpClient {
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS = 5;
+    public static final int DEFAULT_READ_TIMEOUT_SECONDS = 10;
+
+    private static final int MAX_CONNECTIONS_PER_HOST = 8;
+    private static final int MAX_TOTAL_CONNECTIONS = 32;
+    private static final long IDLE_CONNECTION_TIMEOUT_MILLIS = 60 * 1000;
+    private static final long IDLE_CONNECTION_CHECK_MILLIS = 15 * 1000;
+
+    private static final Logger logger = Logger.getLogger(SlackHttpClient.class.getName());
+
+    private static volatile Pool pool;
+    private static int connectTimeoutSeconds = DEFAULT_CONNECT_TIMEOUT_SECONDS;
+    private static int readTimeoutSeconds = DEFAULT_READ_TIMEOUT_SECONDS;
+
+    private static volatile ProxySettings proxySettings = new ProxySettings(null);
+
+    private SlackHttpClient() {
+    }
+
+    private static Pool pool() {
+        Pool p = pool;
+        if (p == null) {
+            synchronized (SlackHttpClient.class) {
+                p = pool;
+                if (p == null) {
+                    p = new Pool();
+                    p.setTimeouts(connectTimeoutSeconds, readTimeoutSeconds);
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Executes the method on the shared client through the current Jenkins proxy, if any.
+     * Callers must release the connection of the method once they have read the response.
+     */
+    public static int execute(HttpMethod method) throws IOException {
+        ProxySettings proxy = getProxySettings();
+        return pool().client.executeMethod(proxy.hostConfiguration, method, proxy.state);
+    }
+
+    /**
+     * Bounds how long a post may wait for a connection and for the response, so a stalled
+     * Slack or proxy cannot hold a build indefinitely.
+     */
+    public static synchronized void setTimeouts(int connectTimeoutSeconds, int readTimeoutSeconds) {
+        SlackHttpClient.connectTimeoutSeconds = connectTimeoutSeconds;
+        SlackHttpClient.readTimeoutSeconds = readTimeoutSeconds;
+        Pool p = pool;
+        if (p != null) {
+            p.setTimeouts(connectTimeoutSeconds, readTimeoutSeconds);
+        }
+    }
+
+    /**
+     * Closes the pooled connections. Called by {@link SlackDeliveryQueue#shutdownInstance()}
+     * once the queue has drained, so the last posts still have a client. A later post opens
+     * a new pool.
+     */
+    public static void shutdown() {
+        Pool p;
+        synchronized (SlackHttpClient.class) {
+            p = pool;
+            pool = null;
+        }
+        if (p != null) {
+            p.shutdown();
+        }
+    }
+
+    private static ProxySettings getProxySettings() {
+        Jenkins jenkins = Jenkins.getInstance();
+        ProxyConfiguration proxy = jenkins != null ? jenkins.proxy : null;
+        ProxySettings current = proxySettings;
+        // Jenkins replaces the ProxyConfiguration instance whenever the settings are saved
+        if (current.source != proxy) {
+            current = new ProxySettings(proxy);
+            proxySettings = current;
+        }
+        return current;
+    }
+
+    /**
+     * The connection pool, the client using it, and the thread closing its idle connections.
+     */
+    private static final class Pool {
+        private final MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        private final HttpClient client;
+        private final IdleConnectionTimeoutThread idleConnectionEvictor = new IdleConnectionTimeoutThread();
+
+        Pool() {
+            HttpConnectionManagerParams params = connectionManager.getParams();
+            params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+            params.setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+            params.setStaleCheckingEnabled(true);
+            client = new HttpClient(connectionManager);
+
+            idleConnectionEvictor.setName("SlackHttpClient idle connection evictor");
+            idleConnectionEvictor.addConnectionManager(connectionManager);
+            idleConnectionEvictor.setConnectionTimeout(IDLE_CONNECTION_TIMEOUT_MILLIS);
+            idleConnectionEvictor.setTimeoutInterval(IDLE_CONNECTION_CHECK_MILLIS);
+            idleConnectionEvictor.start();
+        }
+
+        void setTimeouts(int connectTimeoutSeconds, int readTimeoutSeconds) {
+            int connectMillis = (int) TimeUnit.SECONDS.toMillis(connectTimeoutSeconds);
+            HttpConnectionManagerParams params = connectionManager.getParams();
+            params.setConnectionTimeout(connectMillis);
+            params.setSoTimeout((int) TimeUnit.SECONDS.toMillis(readTimeoutSeconds));
+            // time spent waiting for a free pooled connection
+            client.getParams().setConnectionManagerTimeout(connectMillis);
+        }
+
+        void shutdown() {
+            idleConnectionEvictor.shutdown();
+            connectionManager.shutdown();
+        }
+    }
+
+    /**
+     * Immutable snapshot of the host configuration and credentials derived from one
+     * {@link ProxyConfiguration} instance.
+     */
+    private static final class ProxySettings {
+        private final ProxyConfiguration source;
+        private final HostConfiguration hostConfiguration = new HostConfiguration();
+        private final HttpState state = new HttpState();
+
+        ProxySettings(ProxyConfiguration proxy) {
+            this.source = proxy;
+            if (proxy != null) {
+                hostConfiguration.setProxy(proxy.name, proxy.port);
+                String username = proxy.getUserName();
+                String password = proxy.getPassword();
+                // Consider it to be passed if username specified. Sufficient?
+                if (username != null && !"".equals(username.trim())) {
+                    logger.info("Using proxy authentication (user=" + username + ")");
+                    // http://hc.apache.org/httpclient-3.x/authentication.html#Proxy_Authentication
+                    state.setProxyCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A Slack message that is posted once and then updated in place. Each notifier owns a
+ * section of its attachments, so later notifications replace their own part and keep the
+ * others. The sections are saved with the message, so they survive a restart.
+ *
+ * <p>
+ * Calls go through the {@link SlackDeliveryQueue}, which rate limits and retries them like
+ * web hook posts, with at most one call queued per message. Changes made meanwhile are
+ * merged, and only the latest state is sent, so a burst of notifications costs at most two
+ * calls.
+ */
+public final class SlackLiveMessage {
+
+    private static final Logger logger = Logger.getLogger(SlackLiveMessage.class.getName());
+
+    private final String channel;
+    private volatile String channelId;
+    private volatile String ts;
+
+    // the state to send, replaced rather than changed, guarded by this
+    private volatile Map<String, String> sections;
+    private volatile String text;
+
+    // guarded by this
+    private transient long version;
+    /** The version last sent, successfully or not. */
+    private transient long rendered;
+    private transient boolean queued;
+    private transient volatile Runnable onSent;
+
+    public SlackLiveMessage(String channel) {
+        this.channel = channel;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the id Slack gave the channel, once the message is posted
+     */
+    public String getChannelId() {
+        return channelId;
+    }
+
+    /**
+     * @return the timestamp identifying the message, once it is posted
+     */
+    public String getTs() {
+        return ts;
+    }
+
+    /**
+     * Replaces the attachments of a section and the message text, and has the message posted
+     * or updated. Returns without waiting for Slack.
+     *
+     * @param attachments
+     *      serialized attachments separated by commas, see {@link SlackPayloadWriter#attachmentJson}
+     * @param jobKey
+     *      see {@link SlackMessage#SlackMessage(String, String, String, SlackMessage.Priority, String)}
+     * @param onSent
+     *      run after every successful call, e.g. to save the message with its build
+     */
+    public void update(String section, String text, String attachments, SlackWebApi api,
+                       SlackMessage.Priority priority, String jobKey, Runnable onSent) {
+        synchronized (this) {
+            Map<String, String> updated = sections != null
+                    ? new LinkedHashMap<String, String>(sections) : new LinkedHashMap<String, String>();
+            updated.put(section, attachments);
+            sections = updated;
+            this.text = text;
+            this.onSent = onSent;
+            version++;
+            if (queued) {
+                // the queued call sends the latest state
+                return;
+            }
+            queued = true;
+        }
+        enqueue(api, priority, jobKey);
+    }
+
+    private void enqueue(final SlackWebApi api, final SlackMessage.Priority priority, final String jobKey) {
+        final long sentBefore;
+        synchronized (this) {
+            sentBefore = rendered;
+        }
+        SlackMessage message = new SlackMessage(this, api, priority, jobKey);
+        message.setCallback(new SlackMessage.Callback() {
+            public void done(boolean delivered) {
+                synchronized (SlackLiveMessage.this) {
+                    // changed since the last call, unless that call never happened and the
+                    // message was dropped: then the next change tries again
+                    if (rendered == version || rendered == sentBefore) {
+                        queued = false;
+                        return;
+                    }
+                }
+                enqueue(api, priority, jobKey);
+            }
+        });
+        try {
+            SlackDeliveryQueue.getInstance().submit(message);
+        } catch (InterruptedException e) {
+            logger.log(Level.FINE, "Interrupted while queueing Slack message update", e);
+            Thread.currentThread().interrupt();
+            synchronized (this) {
+                queued = false;
+            }
+        }
+    }
+
+    /**
+     * Posts or updates the message with its latest state. Called by the
+     * {@link SlackDeliveryQueue}, never for the same message twice at a time.
+     */
+    SlackPoster.Result send(SlackWebApi api) {
+        String json;
+        boolean post;
+        synchronized (this) {
+            rendered = version;
+            post = ts == null;
+            json = render(post);
+        }
+        SlackWebApi.Reply reply = post ? api.postMessage(json) : api.update(json);
+        if (reply.getResult().getOutcome() == SlackPoster.Result.Outcome.DELIVERED) {
+            if (post && reply.getTs() != null) {
+                channelId = reply.getChannelId();
+                ts = reply.getTs();
+            }
+            Runnable callback = onSent;
+            if (callback != null) {
+                callback.run();
+            }
+        }
+        return reply.getResult();
+    }
+
+    private String render(boolean post) {
+        SlackPayloadWriter writer = SlackPayloadWriter.begin();
+        Map<String, String> current = sections != null ? sections : Collections.<String, String>emptyMap();
+        for (String attachments : current.values()) {
+            writer.rawAttachment(attachments);
+        }
+        return writer.end(post ? channel : channelId, post ? null : ts, text);
+    }
+}
@@ -0,0 +1,173 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+/**
+ * A single notification on its way to a Slack web hook, or a turn of a
+ * {@link SlackLiveMessage} to be posted or updated through the Web API.
+ */
+public class SlackMessage {
+
+    /**
+     * Delivery order when messages wait in the {@link SlackDeliveryQueue}.
+     */
+    public enum Priority {
+        /** Failures and builds back to normal. */
+        HIGH(8),
+        NORMAL(3),
+        /** Successful and starting builds. */
+        LOW(1);
+
+        /** Messages of this priority served per scheduling round. */
+        final int weight;
+
+        Priority(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Told once when the delivery of a message ends, whether it was delivered or given up.
+     */
+    public interface Callback {
+        void done(boolean delivered);
+    }
+
+    private final String webHookEndpoint;
+    private final String channel;
+    private final String payload;
+    private final Priority priority;
+    private final String jobKey;
+    private final SlackLiveMessage liveMessage;
+    private final SlackWebApi webApi;
+    private int attempts;
+    private long outboxId;
+    private SlackOutbox outbox;
+    private volatile Callback callback;
+    private boolean reserved;
+
+    public SlackMessage(String webHookEndpoint, String channel, String payload) {
+        this(webHookEndpoint, channel, payload, Priority.NORMAL, null);
+    }
+
+    /**
+     * @param jobKey
+     *      messages with the same key share one turn when the queue is served, e.g. the job name
+     */
+    public SlackMessage(String webHookEndpoint, String channel, String payload, Priority priority, String jobKey) {
+        this.webHookEndpoint = webHookEndpoint;
+        this.channel = channel;
+        this.payload = payload;
+        this.priority = priority != null ? priority : Priority.NORMAL;
+        this.jobKey = jobKey != null ? jobKey : "";
+        this.liveMessage = null;
+        this.webApi = null;
+    }
+
+    /**
+     * A message rendered from the latest state of {@code liveMessage} when it is sent. It is
+     * rate limited and retried like the others, but not journaled in the {@link SlackOutbox}.
+     */
+    SlackMessage(SlackLiveMessage liveMessage, SlackWebApi webApi, Priority priority, String jobKey) {
+        this.webHookEndpoint = SlackWebApi.BASE_URL;
+        this.channel = liveMessage.getChannel();
+        this.payload = null;
+        this.priority = priority != null ? priority : Priority.NORMAL;
+        this.jobKey = jobKey != null ? jobKey : "";
+        this.liveMessage = liveMessage;
+        this.webApi = webApi;
+    }
+
+    public String getWebHookEndpoint() {
+        return webHookEndpoint;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    /**
+     * The message as a JSON document, or null for a {@link #getLiveMessage() live message}.
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    SlackLiveMessage getLiveMessage() {
+        return liveMessage;
+    }
+
+    SlackWebApi getWebApi() {
+        return webApi;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public String getJobKey() {
+        return jobKey;
+    }
+
+    /**
+     * Number of failed delivery attempts so far.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Tells the callback, if any, that delivery ended. Later calls do nothing.
+     */
+    void done(boolean delivered) {
+        Callback c = callback;
+        callback = null;
+        if (c != null) {
+            c.done(delivered);
+        }
+    }
+
+    /**
+     * Marks that the message holds a slot of its channel's {@link RateLimiter}.
+     */
+    void setReserved() {
+        reserved = true;
+    }
+
+    /**
+     * @return whether the message held a slot, which it gives up
+     */
+    boolean takeReservation() {
+        boolean held = reserved;
+        reserved = false;
+        return held;
+    }
+
+    int recordAttempt() {
+        return ++attempts;
+    }
+
+    /**
+     * Id of this message in the {@link SlackOutbox}, or 0 if it is not journaled.
+     */
+    long getOutboxId() {
+        return outboxId;
+    }
+
+    void setOutboxId(long outboxId) {
+        this.outboxId = outboxId;
+    }
+
+    /**
+     * The outbox that journaled this message, which is the one to acknowledge it.
+     */
+    SlackOutbox getOutbox() {
+        return outbox;
+    }
+
+    void setOutbox(SlackOutbox outbox) {
+        this.outbox = outbox;
+    }
+}
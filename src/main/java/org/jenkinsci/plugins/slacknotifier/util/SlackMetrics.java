@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide delivery metrics. Recording is lock-free: counters are striped and the
+ * histograms are arrays of atomic buckets, so notifying threads never wait on each other
+ * to be measured.
+ */
+public final class SlackMetrics {
+
+    private static final StripedCounter sent = new StripedCounter();
+    private static final StripedCounter failed = new StripedCounter();
+    private static final StripedCounter retried = new StripedCounter();
+    private static final StripedCounter dropped = new StripedCounter();
+
+    /** Post latency in milliseconds, keyed by {@link #endpointLabel}. */
+    private static final ConcurrentMap<String, LatencyHistogram> postLatency = new ConcurrentHashMap<String, LatencyHistogram>();
+    /** Time spent in {@code perform} in microseconds, keyed by notifier. */
+    private static final ConcurrentMap<String, LatencyHistogram> performTime = new ConcurrentHashMap<String, LatencyHistogram>();
+
+    private SlackMetrics() {
+    }
+
+    public static void recordSent() {
+        sent.increment();
+    }
+
+    /**
+     * A post that did not deliver its message, whether or not it is retried.
+     */
+    public static void recordFailure() {
+        failed.increment();
+    }
+
+    public static void recordRetry() {
+        retried.increment();
+    }
+
+    public static void recordDrop() {
+        dropped.increment();
+    }
+
+    public static void recordPostLatency(String endpoint, long millis) {
+        histogram(postLatency, endpointLabel(endpoint)).record(millis);
+    }
+
+    public static void recordPerform(String notifier, long micros) {
+        histogram(performTime, notifier).record(micros);
+    }
+
+    public static long getSent() {
+        return sent.sum();
+    }
+
+    public static long getFailed() {
+        return failed.sum();
+    }
+
+    public static long getRetried() {
+        return retried.sum();
+    }
+
+    public static long getDropped() {
+        return dropped.sum();
+    }
+
+    public static Map<String, LatencyHistogram> getPostLatency() {
+        return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(postLatency));
+    }
+
+    public static Map<String, LatencyHistogram> getPerformTime() {
+        return Collections.unmodifiableMap(new TreeMap<String, LatencyHistogram>(performTime));
+    }
+
+    private static LatencyHistogram histogram(ConcurrentMap<String, LatencyHistogram> histograms, String key) {
+        LatencyHistogram histogram = histograms.get(key);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(key, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * The last path segment of a web hook URL is its secret, so it is masked wherever the
+     * endpoint is shown.
+     */
+    static String endpointLabel(String endpoint) {
+        if (endpoint == null) {
+            return "";
+        }
+        int query = endpoint.indexOf('?');
+        String path = query < 0 ? endpoint : endpoint.substring(0, query);
+        int slash = path.lastIndexOf('/');
+        if (slash < 0 || slash < path.indexOf("//") + 2 || slash == path.length() - 1) {
+            return path;
+        }
+        return path.substring(0, slash + 1) + "****";
+    }
+}
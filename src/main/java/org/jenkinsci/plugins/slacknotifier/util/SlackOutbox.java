@@ -0,0 +1,384 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal under JENKINS_HOME of messages that have not been delivered yet, so
+ * that they survive a restart.
+ *
+ * <p>
+ * Every message is appended to the current segment file before it is sent, and an
+ * acknowledgement record is appended once delivery is over. Appends only go to the page
+ * cache; a background thread forces the segment to disk every {@value #SYNC_INTERVAL_MILLIS}ms.
+ * Segments are rolled at {@value #SEGMENT_SIZE} bytes and deleted, oldest first, once every
+ * message they hold has been acknowledged. Deleting strictly in order keeps acknowledgements
+ * around for as long as the messages they refer to. Whenever the outbox is opened, the
+ * segments left by the last run are read first and their unacknowledged messages compacted
+ * into a fresh segment, so new ids never collide with ids on disk; {@link #replay()} then
+ * hands those messages back to the {@link SlackDeliveryQueue}.
+ *
+ * <p>
+ * Record layout: type (1 byte), id (8), payload length (4), payload (UTF-8 JSON), CRC32 (4).
+ */
+public class SlackOutbox {
+
+    private static final Logger logger = Logger.getLogger(SlackOutbox.class.getName());
+
+    private static final byte APPEND = 1;
+    private static final byte ACK = 2;
+    private static final int HEADER_SIZE = 1 + 8 + 4;
+    private static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+    private static final long SYNC_INTERVAL_MILLIS = 200;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static volatile boolean enabled;
+    private static SlackOutbox instance;
+    /** Messages recovered when the outbox was opened, until {@link #replay()} takes them. */
+    private static List<SlackMessage> recovered = Collections.emptyList();
+
+    private final File directory;
+    private final Map<Long, Segment> pending = new HashMap<Long, Segment>();
+    private final LinkedList<Segment> segments = new LinkedList<Segment>();
+    private final ScheduledExecutorService syncer;
+    private Segment current;
+    private long nextId = 1;
+    private boolean dirty;
+    private boolean closed;
+
+    SlackOutbox(File directory) {
+        this.directory = directory;
+        this.syncer = Executors.newSingleThreadScheduledExecutor(
+                new NamingThreadFactory(new DaemonThreadFactory(), "SlackOutbox sync"));
+        syncer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                sync();
+            }
+        }, SYNC_INTERVAL_MILLIS, SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public static void configure(boolean enabled) {
+        SlackOutbox.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    private static synchronized SlackOutbox getInstance() {
+        if (instance == null) {
+            instance = new SlackOutbox(new File(Jenkins.getInstance().getRootDir(), "slacknotifier-outbox"));
+            try {
+                recovered = instance.recover();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not read the Slack outbox, undelivered messages are lost", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Journals a message that is about to be delivered. Does nothing when the outbox is
+     * disabled, the message is already journaled, or it is a live message, which is saved
+     * with its build instead.
+     */
+    static void record(SlackMessage message) {
+        if (!enabled || message.getOutboxId() != 0 || message.getLiveMessage() != null) {
+            return;
+        }
+        try {
+            getInstance().append(message);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not journal Slack message, it will not survive a restart", e);
+        }
+    }
+
+    /**
+     * Marks a journaled message as done, whether it was delivered or given up on.
+     */
+    static void acknowledge(SlackMessage message) {
+        SlackOutbox outbox = message.getOutbox();
+        if (outbox == null || message.getOutboxId() == 0) {
+            return;
+        }
+        try {
+            // the outbox that journaled it, even if it has been closed and replaced since
+            outbox.ack(message.getOutboxId());
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not acknowledge journaled Slack message", e);
+        }
+    }
+
+    /**
+     * Queues the messages left over from the last run. Must be called once the global
+     * configuration, which enables the outbox, is loaded. Never blocks.
+     */
+    public static void replay() {
+        if (!enabled) {
+            return;
+        }
+        List<SlackMessage> undelivered;
+        synchronized (SlackOutbox.class) {
+            getInstance();
+            undelivered = recovered;
+            recovered = Collections.emptyList();
+        }
+        if (!undelivered.isEmpty()) {
+            logger.info("Resending " + undelivered.size() + " Slack messages left over from the last run");
+        }
+        for (SlackMessage message : undelivered) {
+            SlackDeliveryQueue.getInstance().resume(message);
+        }
+    }
+
+    /**
+     * Closes the outbox. The next use opens it again under the then current Jenkins home.
+     */
+    static void shutdown() {
+        SlackOutbox outbox;
+        synchronized (SlackOutbox.class) {
+            outbox = instance;
+            instance = null;
+            recovered = Collections.emptyList();
+        }
+        if (outbox != null) {
+            outbox.close();
+        }
+    }
+
+    synchronized void append(SlackMessage message) throws IOException {
+        if (closed) {
+            throw new IOException("The Slack outbox in " + directory + " is closed");
+        }
+        JSONObject envelope = new JSONObject();
+        envelope.put("endpoint", message.getWebHookEndpoint());
+        envelope.put("channel", message.getChannel());
+        envelope.put("payload", message.getPayload());
+        envelope.put("priority", message.getPriority().name());
+        envelope.put("job", message.getJobKey());
+        long id = nextId++;
+        Segment segment = currentSegment();
+        write(segment, APPEND, id, envelope.toString().getBytes("UTF-8"));
+        segment.live++;
+        pending.put(id, segment);
+        message.setOutboxId(id);
+        message.setOutbox(this);
+    }
+
+    synchronized void ack(long id) throws IOException {
+        Segment segment = pending.remove(id);
+        if (segment == null || closed) {
+            // a closed outbox takes no more writes; the message is resent on the next start
+            return;
+        }
+        write(currentSegment(), ACK, id, new byte[0]);
+        segment.live--;
+        deleteAcknowledgedSegments();
+    }
+
+    private void deleteAcknowledgedSegments() {
+        while (!segments.isEmpty() && segments.getFirst() != current && segments.getFirst().live == 0) {
+            segments.removeFirst().delete();
+        }
+    }
+
+    private void write(Segment segment, byte type, long id, byte[] payload) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length + 4);
+        buffer.put(type).putLong(id).putInt(payload.length).put(payload);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            segment.channel.write(buffer);
+        }
+        dirty = true;
+    }
+
+    private Segment currentSegment() throws IOException {
+        if (current != null && current.channel.size() < SEGMENT_SIZE) {
+            return current;
+        }
+        Segment previous = current;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        current = new Segment(new File(directory, String.format("%019d", nextId) + SEGMENT_SUFFIX));
+        segments.addLast(current);
+        if (previous != null) {
+            previous.channel.force(false);
+            previous.close();
+            deleteAcknowledgedSegments();
+        }
+        return current;
+    }
+
+    private void sync() {
+        FileChannel channel;
+        synchronized (this) {
+            if (!dirty || current == null) {
+                return;
+            }
+            dirty = false;
+            channel = current.channel;
+        }
+        try {
+            // outside the lock so appends are not held up by the disk
+            channel.force(false);
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Could not sync the Slack outbox", e);
+        }
+    }
+
+    /**
+     * Reads every segment, rewrites the unacknowledged messages into a fresh segment and
+     * deletes the old ones.
+     */
+    synchronized List<SlackMessage> recover() throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new ArrayList<SlackMessage>();
+        }
+        Arrays.sort(files);
+        Map<Long, SlackMessage> undelivered = new LinkedHashMap<Long, SlackMessage>();
+        List<File> leftOver = new ArrayList<File>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(SEGMENT_SUFFIX) && (current == null || !file.equals(current.file))) {
+                leftOver.add(file);
+                read(file, undelivered);
+                try {
+                    // never reuse the name of a segment that is about to be deleted
+                    nextId = Math.max(nextId, Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) + 1);
+                } catch (NumberFormatException e) {
+                    logger.fine("Unexpected file name in the Slack outbox: " + name);
+                }
+            }
+        }
+        List<SlackMessage> messages = new ArrayList<SlackMessage>(undelivered.size());
+        for (SlackMessage message : undelivered.values()) {
+            message.setOutboxId(0);
+            append(message);
+            messages.add(message);
+        }
+        if (current != null) {
+            current.channel.force(false);
+        }
+        for (File segment : leftOver) {
+            if (!segment.delete()) {
+                logger.warning("Could not delete compacted Slack outbox segment " + segment);
+            }
+        }
+        return messages;
+    }
+
+    private void read(File file, Map<Long, SlackMessage> undelivered) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            while (true) {
+                byte type = in.readByte();
+                long id = in.readLong();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_PAYLOAD_SIZE) {
+                    throw new IOException("corrupt record length " + length);
+                }
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int checksum = in.readInt();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).put(type).putLong(id).putInt(length);
+                CRC32 crc = new CRC32();
+                crc.update(header.array());
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("checksum mismatch for record " + id);
+                }
+                nextId = Math.max(nextId, id + 1);
+                if (type == APPEND) {
+                    JSONObject envelope = new JSONObject(new String(payload, "UTF-8"));
+                    undelivered.put(id, new SlackMessage(envelope.getString("endpoint"),
+                            envelope.optString("channel", null), envelope.get("payload").toString(),
+                            SlackMessage.Priority.valueOf(envelope.optString("priority", SlackMessage.Priority.NORMAL.name())),
+                            envelope.optString("job", null)));
+                } else {
+                    undelivered.remove(id);
+                }
+            }
+        } catch (EOFException e) {
+            // end of segment, possibly a record torn by a crash
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Stopped reading Slack outbox segment " + file + " at a damaged record", e);
+        } catch (JSONException e) {
+            logger.log(Level.WARNING, "Stopped reading Slack outbox segment " + file + " at a damaged record", e);
+        } finally {
+            in.close();
+        }
+    }
+
+    synchronized void close() {
+        closed = true;
+        syncer.shutdown();
+        if (current != null) {
+            try {
+                current.channel.force(false);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not sync the Slack outbox", e);
+            }
+            current.close();
+            current = null;
+        }
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final FileChannel channel;
+        private int live;
+
+        Segment(File file) throws IOException {
+            this.file = file;
+            this.channel = new FileOutputStream(file, true).getChannel();
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Could not close " + file, e);
+            }
+        }
+
+        void delete() {
+            close();
+            if (!file.delete()) {
+                logger.warning("Could not delete acknowledged Slack outbox segment " + file);
+            }
+        }
+    }
+}
@@ -1,24 +1,22 @@
 package org.jenkinsci.plugins.slacknotifier.util;
 
-import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
 
-import org.json.JSONObject;
-import org.json.JSONArray;
-
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import jenkins.model.Jenkins;
-import hudson.ProxyConfiguration;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
-
 public class SlackPoster {
 
     private static final Logger logger = Logger.getLogger(SlackPoster.class.getName());
 
+    static final int SC_TOO_MANY_REQUESTS = 429;
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
     private String webHookEndpoint = "";
 
     public SlackPoster(String webhookEndpoint) {
@@ -26,49 +24,117 @@ public class SlackPoster {
         this.webHookEndpoint = webhookEndpoint;
     }
 
-    public void publish(JSONObject json) {
+    /**
+     * @param json
+     *      the message, sent as is with content type application/json
+     */
+    public Result publish(String json) {
             String url = webHookEndpoint;
-            logger.info("Posting to " + webHookEndpoint);
-            HttpClient client = getHttpClient();
+            CircuitBreaker breaker = CircuitBreaker.forEndpoint(webHookEndpoint);
+            if (!breaker.allowRequest()) {
+                logger.warning("Slack endpoint " + webHookEndpoint + " is failing, message not posted");
+                return Result.circuitOpen(breaker.getRetryDelayMillis());
+            }
+            logger.fine("Posting to " + webHookEndpoint);
             PostMethod post = new PostMethod(url);
 
             try {
 
-                post.addParameter("payload", json.toString());
-                post.getParams().setContentCharset("UTF-8");
-                int responseCode = client.executeMethod(post);
+                post.setRequestEntity(new StringRequestEntity(json, "application/json", "UTF-8"));
+                int responseCode = SlackHttpClient.execute(post);
                 String response = post.getResponseBodyAsString();
-                if(responseCode != HttpStatus.SC_OK) {
-                    logger.log(Level.WARNING, "Slack post may have failed. Response: " + response);
+                if (responseCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess();
+                }
+                if (responseCode == HttpStatus.SC_OK) {
+                    logger.fine("Posting succeeded");
+                    return Result.DELIVERED;
+                }
+                logger.log(Level.WARNING, "Slack post may have failed. Response: " + response);
+                if (responseCode == SC_TOO_MANY_REQUESTS) {
+                    return Result.rateLimited(getRetryAfterMillis(post));
                 }
+                return responseCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR ? Result.RETRY : Result.FAILED;
+            } catch (ConnectionPoolTimeoutException e) {
+                // every pooled connection to the host is busy: a local wait, not a Slack failure
+                breaker.recordInconclusive();
+                logger.log(Level.WARNING, "No free connection to post to Slack", e);
+                return Result.RETRY;
             } catch (Exception e) {
+                breaker.recordFailure();
                 logger.log(Level.WARNING, "Error posting to Slack", e);
+                return Result.RETRY;
             } finally {
-                logger.info("Posting succeeded");
+                // hands the kept-alive connection back to the shared pool
                 post.releaseConnection();
             }
     }
 
-    private HttpClient getHttpClient() {
-        HttpClient client = new HttpClient();
-        if (Jenkins.getInstance() != null) {
-            ProxyConfiguration proxy = Jenkins.getInstance().proxy;
-            if (proxy != null) {
-                client.getHostConfiguration().setProxy(proxy.name, proxy.port);
-                String username = proxy.getUserName();
-                String password = proxy.getPassword();
-                // Consider it to be passed if username specified. Sufficient?
-                if (username != null && !"".equals(username.trim())) {
-                    logger.info("Using proxy authentication (user=" + username + ")");
-                    // http://hc.apache.org/httpclient-3.x/authentication.html#Proxy_Authentication
-                    // and
-                    // http://svn.apache.org/viewvc/httpcomponents/oac.hc3x/trunk/src/examples/BasicAuthenticationExample.java?view=markup
-                    client.getState().setProxyCredentials(AuthScope.ANY,
-                            new UsernamePasswordCredentials(username, password));
-                }
+    /**
+     * @return the delay Slack asked for in the {@code Retry-After} header of a 429 response
+     */
+    static long getRetryAfterMillis(PostMethod post) {
+        Header retryAfter = post.getResponseHeader("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.getValue().trim()));
+            } catch (NumberFormatException e) {
+                logger.fine("Ignoring unparseable Retry-After header: " + retryAfter.getValue());
             }
         }
-        return client;
+        return DEFAULT_RETRY_AFTER_MILLIS;
+    }
+
+    /**
+     * Outcome of a single post.
+     */
+    public static final class Result {
+
+        public enum Outcome {
+            /** Slack accepted the message. */
+            DELIVERED,
+            /** Slack throttled us; try again after {@link #getRetryAfterMillis()}. */
+            RATE_LIMITED,
+            /** Transient failure (5xx, I/O error); worth retrying. */
+            RETRY,
+            /**
+             * The endpoint's circuit is open, nothing was sent; try again after
+             * {@link #getRetryAfterMillis()}, when it lets a probe through.
+             */
+            CIRCUIT_OPEN,
+            /** Slack rejected the message; retrying will not help. */
+            FAILED
+        }
+
+        public static final Result DELIVERED = new Result(Outcome.DELIVERED, 0);
+        public static final Result RETRY = new Result(Outcome.RETRY, 0);
+        public static final Result FAILED = new Result(Outcome.FAILED, 0);
+
+        private final Outcome outcome;
+        private final long retryAfterMillis;
+
+        private Result(Outcome outcome, long retryAfterMillis) {
+            this.outcome = outcome;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        static Result rateLimited(long retryAfterMillis) {
+            return new Result(Outcome.RATE_LIMITED, retryAfterMillis);
+        }
+
+        static Result circuitOpen(long retryAfterMillis) {
+            return new Result(Outcome.CIRCUIT_OPEN, retryAfterMillis);
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        public long getRetryAfterMillis() {
+            return retryAfterMillis;
+        }
     }
 
-}
\ No newline at end of file
+}
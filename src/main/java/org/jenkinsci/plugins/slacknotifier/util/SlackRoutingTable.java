@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Which web hook endpoints a channel's messages go to. A table is immutable: the global
+ * configuration builds a new one and {@link #install installs} it in a single volatile
+ * write, so notifiers always see either the old or the new routes in full.
+ *
+ * <p>
+ * A channel goes to the endpoints of every rule whose pattern matches it, in rule order,
+ * or to the default endpoint if none does.
+ */
+public final class SlackRoutingTable {
+
+    private static volatile SlackRoutingTable current = new SlackRoutingTable(null, Collections.<Rule>emptyList());
+
+    private final List<String> defaultEndpoints;
+    private final List<Rule> rules;
+
+    public SlackRoutingTable(String defaultEndpoint, List<Rule> rules) {
+        this.defaultEndpoints = StringUtils.isBlank(defaultEndpoint)
+                ? Collections.<String>emptyList() : Collections.singletonList(defaultEndpoint.trim());
+        this.rules = Collections.unmodifiableList(new ArrayList<Rule>(rules));
+    }
+
+    public static SlackRoutingTable current() {
+        return current;
+    }
+
+    public static void install(SlackRoutingTable table) {
+        current = table;
+    }
+
+    public List<String> endpointsFor(String channel) {
+        if (rules.isEmpty()) {
+            return defaultEndpoints;
+        }
+        Set<String> endpoints = null;
+        for (Rule rule : rules) {
+            if (rule.matches(channel)) {
+                if (endpoints == null) {
+                    endpoints = new LinkedHashSet<String>();
+                }
+                endpoints.addAll(rule.endpoints);
+            }
+        }
+        return endpoints == null ? defaultEndpoints : new ArrayList<String>(endpoints);
+    }
+
+    /**
+     * Channels matching a glob pattern ({@code *} and {@code ?}) go to the given endpoints.
+     */
+    public static final class Rule {
+        private final Pattern pattern;
+        private final List<String> endpoints;
+
+        public Rule(String channelPattern, Collection<String> endpoints) {
+            this.pattern = compile(channelPattern);
+            this.endpoints = Collections.unmodifiableList(new ArrayList<String>(endpoints));
+        }
+
+        boolean matches(String channel) {
+            return pattern.matcher(channel == null ? "" : channel).matches();
+        }
+
+        private static Pattern compile(String glob) {
+            if (StringUtils.isBlank(glob)) {
+                return Pattern.compile(".*", Pattern.DOTALL);
+            }
+            StringBuilder regex = new StringBuilder();
+            int literal = 0;
+            String trimmed = glob.trim();
+            for (int i = 0; i < trimmed.length(); i++) {
+                char c = trimmed.charAt(i);
+                if (c == '*' || c == '?') {
+                    if (i > literal) {
+                        regex.append(Pattern.quote(trimmed.substring(literal, i)));
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                    literal = i + 1;
+                }
+            }
+            if (literal < trimmed.length()) {
+                regex.append(Pattern.quote(trimmed.substring(literal)));
+            }
+            return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+        }
+    }
+}
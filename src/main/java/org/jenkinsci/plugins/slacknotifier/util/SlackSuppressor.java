@@ -0,0 +1,251 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Holds back notifications that repeat within a time window, so flaky and retried builds do
+ * not spend a web hook call each on the same news.
+ *
+ * <ul>
+ * <li>A notification with the same job, status and commit list as one sent earlier in the
+ * window is not sent; when the window ends a single "(repeated N times)" follow-up is.</li>
+ * <li>A job whose status changes {@value #FLAP_THRESHOLD} times within the window is reported
+ * as flapping once, and its notifications are held back until the window ends.</li>
+ * </ul>
+ *
+ * Memory is bounded: at most {@value #MAX_CHANNELS} channels are tracked, each with at most
+ * {@value #MAX_ENTRIES_PER_CHANNEL} fingerprints and jobs, least recently used first out.
+ */
+public class SlackSuppressor {
+
+    static final int MAX_CHANNELS = 256;
+    static final int MAX_ENTRIES_PER_CHANNEL = 512;
+    static final int FLAP_THRESHOLD = 3;
+
+    private static final Logger logger = Logger.getLogger(SlackSuppressor.class.getName());
+
+    private static final ScheduledExecutorService followUps = Executors.newSingleThreadScheduledExecutor(
+            new NamingThreadFactory(new DaemonThreadFactory(), "SlackSuppressor"));
+    private static final Map<String, ChannelState> channels = new Lru<String, ChannelState>(MAX_CHANNELS);
+    private static volatile long windowMillis;
+
+    private SlackSuppressor() {
+    }
+
+    public static void configure(int windowSeconds) {
+        windowMillis = TimeUnit.SECONDS.toMillis(Math.max(0, windowSeconds));
+        if (windowMillis == 0) {
+            synchronized (channels) {
+                channels.clear();
+            }
+        }
+    }
+
+    public static boolean isEnabled() {
+        return windowMillis > 0;
+    }
+
+    /**
+     * @param status
+     *      the build result, e.g. {@code FAILURE}
+     * @param commitList
+     *      the commit list of the notification, only its hash is kept
+     * @return false if the notification repeats one sent within the window, or the job is
+     *      flapping; it is then accounted for in a later follow-up instead
+     */
+    public static boolean admit(String endpoint, String channel, String job, String status, String commitList) {
+        long window = windowMillis;
+        if (window <= 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        String flapNotice = null;
+        synchronized (channels) {
+            String key = endpoint + "#" + channel;
+            ChannelState state = channels.get(key);
+            if (state == null) {
+                state = new ChannelState();
+                channels.put(key, state);
+            }
+
+            Flap flap = state.jobs.get(job);
+            if (flap == null || now - flap.windowStart >= window) {
+                flap = new Flap(endpoint, channel, job, now, status);
+                state.jobs.put(job, flap);
+            } else if (!status.equals(flap.lastStatus)) {
+                flap.changes++;
+                flap.lastStatus = status;
+            }
+            if (flap.changes >= FLAP_THRESHOLD) {
+                if (flap.reported) {
+                    flap.held++;
+                    return false;
+                }
+                flap.reported = true;
+                schedule(flap, flap.windowStart + window - now);
+                flapNotice = job + " is flapping: " + flap.changes + " status changes in the last "
+                        + duration(now - flap.windowStart) + ", now " + status;
+            } else {
+                Long fingerprint = fingerprint(job, status, commitList);
+                Repeat repeat = state.fingerprints.get(fingerprint);
+                if (repeat != null && now - repeat.firstSeen < window) {
+                    if (repeat.repeats++ == 0) {
+                        schedule(repeat, repeat.firstSeen + window - now);
+                    }
+                    return false;
+                }
+                state.fingerprints.put(fingerprint, new Repeat(endpoint, channel, job, status, now));
+                return true;
+            }
+        }
+        send(endpoint, channel, flapNotice, SlackMessage.Priority.HIGH, job);
+        return false;
+    }
+
+    /**
+     * FNV-1a over job, status and commit list, which is all that is kept of a notification.
+     */
+    static long fingerprint(String job, String status, String commitList) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, job);
+        hash = fnv(hash, status);
+        return fnv(hash, commitList);
+    }
+
+    private static long fnv(long hash, String s) {
+        if (s != null) {
+            for (int i = 0; i < s.length(); i++) {
+                hash = (hash ^ s.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        // separator, so ("ab", "c") and ("a", "bc") differ
+        return (hash ^ 0xffff) * 0x100000001b3L;
+    }
+
+    /**
+     * Describes a duration in whole minutes, or in seconds when it is shorter than a minute.
+     */
+    static String duration(long millis) {
+        long minutes = TimeUnit.MILLISECONDS.toMinutes(millis);
+        if (minutes == 0) {
+            long seconds = TimeUnit.MILLISECONDS.toSeconds(millis);
+            return seconds + (seconds == 1 ? " second" : " seconds");
+        }
+        return minutes + (minutes == 1 ? " minute" : " minutes");
+    }
+
+    private static void schedule(final Runnable followUp, long delayMillis) {
+        followUps.schedule(new Runnable() {
+            public void run() {
+                try {
+                    followUp.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to send Slack follow-up", e);
+                }
+            }
+        }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private static void send(String endpoint, String channel, String text, SlackMessage.Priority priority, String job) {
+        String json = SlackPayloadWriter.begin().end(channel, SlackText.sanitize(text, SlackText.MAX_FIELD_BYTES));
+        try {
+            // called on builds and on the follow-up timer, neither of which should wait for room
+            SlackDeliveryQueue.getInstance().submit(new SlackMessage(endpoint, channel, json, priority, job));
+        } catch (InterruptedException e) {
+            logger.log(Level.WARNING, "Interrupted while queueing Slack follow-up", e);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class ChannelState {
+        private final Map<Long, Repeat> fingerprints = new Lru<Long, Repeat>(MAX_ENTRIES_PER_CHANNEL);
+        private final Map<String, Flap> jobs = new Lru<String, Flap>(MAX_ENTRIES_PER_CHANNEL);
+    }
+
+    /**
+     * A notification that was sent, and how many times it came again since.
+     */
+    private static final class Repeat implements Runnable {
+        private final String endpoint;
+        private final String channel;
+        private final String job;
+        private final String status;
+        private final long firstSeen;
+        private int repeats;
+
+        Repeat(String endpoint, String channel, String job, String status, long firstSeen) {
+            this.endpoint = endpoint;
+            this.channel = channel;
+            this.job = job;
+            this.status = status;
+            this.firstSeen = firstSeen;
+        }
+
+        public void run() {
+            int n;
+            synchronized (channels) {
+                n = repeats;
+            }
+            send(endpoint, channel, job + ": " + status + " (repeated " + n + (n == 1 ? " time)" : " times)"),
+                    SlackMessage.Priority.LOW, job);
+        }
+    }
+
+    /**
+     * Status changes of a job in the current window.
+     */
+    private static final class Flap implements Runnable {
+        private final String endpoint;
+        private final String channel;
+        private final String job;
+        private final long windowStart;
+        private String lastStatus;
+        private int changes;
+        private boolean reported;
+        private int held;
+
+        Flap(String endpoint, String channel, String job, long windowStart, String status) {
+            this.endpoint = endpoint;
+            this.channel = channel;
+            this.job = job;
+            this.windowStart = windowStart;
+            this.lastStatus = status;
+        }
+
+        public void run() {
+            int n;
+            String status;
+            synchronized (channels) {
+                n = held;
+                status = lastStatus;
+            }
+            if (n > 0) {
+                send(endpoint, channel, job + " kept flapping: " + n + " more builds held back, now " + status,
+                        SlackMessage.Priority.NORMAL, job);
+            }
+        }
+    }
+
+    private static final class Lru<K, V> extends LinkedHashMap<K, V> {
+        private final int maxEntries;
+
+        Lru(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+/**
+ * Prepares text for Slack message fields: escapes {@code &}, {@code <} and {@code >} in one
+ * pass and cuts the result to a UTF-8 byte budget. Links and mentions written on purpose
+ * ({@code <http://...|label>}, {@code <@U123>}, {@code <#C123>}, {@code <!here>}) are kept
+ * as they are, and {@code @name} needs no escaping, so both still work with
+ * {@code link_names}. Text that needs neither escaping nor truncating is returned as is.
+ */
+public final class SlackText {
+
+    /** Budget for a single message or attachment field, well under Slack's message limit. */
+    public static final int MAX_FIELD_BYTES = 8000;
+
+    private static final String ELLIPSIS = "...";
+
+    /** A {@code <} further than this from its {@code >} is not taken for a link. */
+    private static final int MAX_LINK_CHARS = 2048;
+
+    private SlackText() {
+    }
+
+    public static String escape(String text) {
+        return sanitize(text, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the escaped text, cut to at most {@code maxBytes} UTF-8 bytes with a trailing
+     *      {@code "..."} if it was longer (only as many dots as fit if {@code maxBytes} is
+     *      under 3); never splits an escape, a link or a surrogate pair
+     */
+    public static String sanitize(String text, int maxBytes) {
+        if (text == null) {
+            return null;
+        }
+        int n = text.length();
+        long bytes = 0;
+        int i = 0;
+        for (; i < n; i++) {
+            char c = text.charAt(i);
+            if (c == '&' || c == '<' || c == '>') {
+                break;
+            }
+            bytes += utf8Length(c);
+        }
+        if (i == n && bytes <= maxBytes) {
+            return text;
+        }
+
+        StringBuilder sb = new StringBuilder(Math.max(0, Math.min(n + 16, maxBytes)));
+        // a budget too small for the ellipsis leaves no room for text either
+        int limit = Math.max(0, maxBytes - ELLIPSIS.length());
+        int written = 0;
+        int cut = -1;
+        for (i = 0; i < n; ) {
+            char c = text.charAt(i);
+            int next = i + 1;
+            int size;
+            String replacement = null;
+            if (c == '&') {
+                replacement = "&amp;";
+                size = 5;
+            } else if (c == '>') {
+                replacement = "&gt;";
+                size = 4;
+            } else if (c == '<') {
+                int end = linkEnd(text, i);
+                if (end < 0) {
+                    replacement = "&lt;";
+                    size = 4;
+                } else {
+                    next = end + 1;
+                    size = utf8Length(text, i, next);
+                }
+            } else if (Character.isHighSurrogate(c) && next < n && Character.isLowSurrogate(text.charAt(next))) {
+                next++;
+                size = 4;
+            } else {
+                size = utf8Length(c);
+            }
+            if (written <= limit) {
+                cut = sb.length();
+            }
+            if ((long) written + size > maxBytes) {
+                if (maxBytes < ELLIPSIS.length()) {
+                    return ELLIPSIS.substring(0, Math.max(0, maxBytes));
+                }
+                sb.setLength(Math.max(cut, 0));
+                return sb.append(ELLIPSIS).toString();
+            }
+            if (replacement != null) {
+                sb.append(replacement);
+            } else {
+                sb.append(text, i, next);
+            }
+            written += size;
+            i = next;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return index of the {@code >} closing the link or mention that starts at {@code start},
+     *      or -1 if the {@code <} there is plain text
+     */
+    private static int linkEnd(String text, int start) {
+        int from = start + 1;
+        if (from >= text.length()) {
+            return -1;
+        }
+        char c = text.charAt(from);
+        if (c != '@' && c != '#' && c != '!' && !text.startsWith("http://", from)
+                && !text.startsWith("https://", from) && !text.startsWith("mailto:", from)) {
+            return -1;
+        }
+        int max = Math.min(text.length(), start + MAX_LINK_CHARS);
+        for (int i = from; i < max; i++) {
+            char d = text.charAt(i);
+            if (d == '>') {
+                return i;
+            }
+            if (d == '<' || d == '\n') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        return c < 0x800 ? 2 : 3;
+    }
+
+    public static int utf8Length(CharSequence s) {
+        return utf8Length(s, 0, s.length());
+    }
+
+    static int utf8Length(CharSequence s, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += utf8Length(c);
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,121 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Posts and updates messages through the Slack Web API with a bot token, which, unlike a
+ * web hook, tells which message was posted so it can be changed later. Makes a single call
+ * from the calling thread; {@link SlackLiveMessage} goes through the
+ * {@link SlackDeliveryQueue} for rate limiting and retries.
+ */
+public class SlackWebApi {
+
+    private static final Logger logger = Logger.getLogger(SlackWebApi.class.getName());
+
+    static final String BASE_URL = "https://slack.com/api/";
+
+    private final String token;
+
+    public SlackWebApi(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Calls {@code chat.postMessage}; the reply holds the channel id and timestamp of the
+     * message once it is delivered.
+     */
+    public Reply postMessage(String json) {
+        return call("chat.postMessage", json);
+    }
+
+    /**
+     * Calls {@code chat.update}; the message must carry the channel id and timestamp
+     * returned by {@link #postMessage}.
+     */
+    public Reply update(String json) {
+        return call("chat.update", json);
+    }
+
+    private Reply call(String method, String json) {
+        String url = BASE_URL + method;
+        CircuitBreaker breaker = CircuitBreaker.forEndpoint(url);
+        if (!breaker.allowRequest()) {
+            logger.warning("Slack " + method + " is failing, message not sent");
+            return new Reply(SlackPoster.Result.circuitOpen(breaker.getRetryDelayMillis()), null, null);
+        }
+        logger.fine("Calling " + url);
+        PostMethod post = new PostMethod(url);
+        try {
+            post.setRequestHeader("Authorization", "Bearer " + token);
+            post.setRequestEntity(new StringRequestEntity(json, "application/json", "UTF-8"));
+            int responseCode = SlackHttpClient.execute(post);
+            String response = post.getResponseBodyAsString();
+            if (responseCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+                breaker.recordFailure();
+                logger.warning("Slack " + method + " failed. Response: " + response);
+                return new Reply(SlackPoster.Result.RETRY, null, null);
+            }
+            breaker.recordSuccess();
+            if (responseCode == SlackPoster.SC_TOO_MANY_REQUESTS) {
+                return new Reply(SlackPoster.Result.rateLimited(SlackPoster.getRetryAfterMillis(post)), null, null);
+            }
+            JSONObject reply = new JSONObject(response);
+            if (responseCode != HttpStatus.SC_OK || !reply.optBoolean("ok")) {
+                // e.g. invalid_auth, channel_not_found, message_not_found: retrying will not help
+                logger.warning("Slack " + method + " failed: " + reply.optString("error", response));
+                return new Reply(SlackPoster.Result.FAILED, null, null);
+            }
+            logger.fine("Slack " + method + " succeeded");
+            return new Reply(SlackPoster.Result.DELIVERED, reply.optString("channel", null), reply.optString("ts", null));
+        } catch (JSONException e) {
+            logger.log(Level.WARNING, "Unexpected reply to Slack " + method, e);
+            return new Reply(SlackPoster.Result.FAILED, null, null);
+        } catch (ConnectionPoolTimeoutException e) {
+            // every pooled connection to the host is busy: a local wait, not a Slack failure
+            breaker.recordInconclusive();
+            logger.log(Level.WARNING, "No free connection to call Slack " + method, e);
+            return new Reply(SlackPoster.Result.RETRY, null, null);
+        } catch (Exception e) {
+            breaker.recordFailure();
+            logger.log(Level.WARNING, "Error calling Slack " + method, e);
+            return new Reply(SlackPoster.Result.RETRY, null, null);
+        } finally {
+            post.releaseConnection();
+        }
+    }
+
+    /**
+     * Outcome of a Web API call, with the message it posted or updated.
+     */
+    public static final class Reply {
+        private final SlackPoster.Result result;
+        private final String channelId;
+        private final String ts;
+
+        Reply(SlackPoster.Result result, String channelId, String ts) {
+            this.result = result;
+            this.channelId = channelId;
+            this.ts = ts;
+        }
+
+        public SlackPoster.Result getResult() {
+            return result;
+        }
+
+        public String getChannelId() {
+            return channelId;
+        }
+
+        public String getTs() {
+            return ts;
+        }
+    }
+}
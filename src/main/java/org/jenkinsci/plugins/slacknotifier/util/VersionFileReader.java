@@ -0,0 +1,60 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the version of a build from a file in its workspace. Runs where the workspace
+ * lives, so only the resulting version string crosses the remoting channel, and never reads
+ * more than {@value #MAX_BYTES} bytes of the file. Only ever sent from the master to an agent.
+ */
+public class VersionFileReader extends MasterToSlaveFileCallable<String> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int MAX_BYTES = 4096;
+
+    private final String pattern;
+
+    /**
+     * @param pattern
+     *      optional regular expression; the version is its first group, or the whole match
+     *      if it has no group. Without a pattern the trimmed file content is the version.
+     */
+    public VersionFileReader(String pattern) {
+        this.pattern = pattern;
+    }
+
+    public String invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+        if (!file.isFile()) {
+            return "";
+        }
+        byte[] buffer = new byte[MAX_BYTES];
+        int length = 0;
+        InputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+        } finally {
+            in.close();
+        }
+        String content = new String(buffer, 0, length, "UTF-8");
+        if (pattern == null || pattern.trim().length() == 0) {
+            return content.trim();
+        }
+        Matcher matcher = Pattern.compile(pattern).matcher(content);
+        if (!matcher.find()) {
+            return "";
+        }
+        return (matcher.groupCount() > 0 ? matcher.group(1) : matcher.group()).trim();
+    }
+}
@@ -0,0 +1,155 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.queue.QueueTaskFuture;
+import net.sf.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs concurrent builds that notify through both notifiers against a {@link SlackWebhookStub}
+ * and reports end-to-end notification latency, executor hold time and delivery success rate.
+ * Each test starts and stops its own Jenkins in the same JVM, so later tests also check that
+ * delivery comes back after the plugin has been shut down.
+ *
+ * <p>
+ * The load is set with system properties, e.g.
+ * <tt>mvn test -Dtest=SlackNotifierLoadTest -Dslack.load.builds=100 -Dslack.load.latencyMillis=300</tt>.
+ */
+public class SlackNotifierLoadTest {
+
+    private static final int BUILDS = Integer.getInteger("slack.load.builds", 10);
+    private static final long LATENCY_MILLIS = Long.getLong("slack.load.latencyMillis", 50);
+    private static final long DELIVERY_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private SlackWebhookStub stub;
+
+    @Before
+    public void startStub() throws Exception {
+        stub = new SlackWebhookStub().withLatency(LATENCY_MILLIS);
+    }
+
+    @After
+    public void stopStub() {
+        stub.stop();
+    }
+
+    @Test
+    public void asyncDeliveryOfConcurrentBuilds() throws Exception {
+        Report report = run(true);
+        assertEquals(report.toString(), 1.0, report.successRate(), 0.0);
+    }
+
+    @Test
+    public void synchronousDeliveryOfConcurrentBuilds() throws Exception {
+        Report report = run(false);
+        assertEquals(report.toString(), 1.0, report.successRate(), 0.0);
+    }
+
+    @Test
+    public void deliveryThroughRateLimitsErrorsAndDroppedConnections() throws Exception {
+        stub.withFaults(4, SlackWebhookStub.Fault.RATE_LIMITED, SlackWebhookStub.Fault.SERVER_ERROR,
+                SlackWebhookStub.Fault.DROP_CONNECTION);
+        Report report = run(true);
+        assertEquals(report.toString(), 1.0, report.successRate(), 0.0);
+    }
+
+    private Report run(boolean async) throws Exception {
+        JSONObject form = new JSONObject();
+        form.put("webHookEndpoint", stub.getUrl());
+        form.put("jenkinsServerUrl", j.getURL().toString());
+        form.put("asyncDelivery", async);
+        j.jenkins.getDescriptorByType(SlackBuildStepNotifier.DescriptorImpl.class).configure(null, form);
+        j.jenkins.setNumExecutors(BUILDS);
+
+        List<QueueTaskFuture<FreeStyleBuild>> futures = new ArrayList<QueueTaskFuture<FreeStyleBuild>>();
+        for (int i = 0; i < BUILDS; i++) {
+            FreeStyleProject project = j.createFreeStyleProject("load-" + i);
+            // a channel per job, so the per-channel rate limit does not serialize the test
+            String channel = "#load-" + i;
+            project.getBuildersList().add(new SlackBuildStepNotifier(channel, "step ${JOB_NAME} #${BUILD_NUMBER}"));
+            project.getPublishersList().add(new SlackPostBuildNotifier(channel, "post ${JOB_NAME} #${BUILD_NUMBER}", false, null, null, 0, null));
+            futures.add(project.scheduleBuild2(0));
+        }
+        List<FreeStyleBuild> builds = new ArrayList<FreeStyleBuild>();
+        for (QueueTaskFuture<FreeStyleBuild> future : futures) {
+            builds.add(j.assertBuildStatusSuccess(future));
+        }
+        List<SlackWebhookStub.Delivery> deliveries = stub.awaitDeliveries(2 * BUILDS, DELIVERY_TIMEOUT_MILLIS);
+
+        Report report = new Report(async, builds, deliveries, stub.getRequestCount(), stub.getFaultCount());
+        System.out.println(report);
+        return report;
+    }
+
+    private static final class Report {
+        private final boolean async;
+        private final int expected;
+        private final int delivered;
+        private final long requests;
+        private final long faults;
+        private final List<Long> latencies = new ArrayList<Long>();
+        private final List<Long> holdTimes = new ArrayList<Long>();
+
+        Report(boolean async, List<FreeStyleBuild> builds, List<SlackWebhookStub.Delivery> deliveries,
+               long requests, long faults) {
+            this.async = async;
+            this.expected = 2 * builds.size();
+            this.delivered = deliveries.size();
+            this.requests = requests;
+            this.faults = faults;
+            for (FreeStyleBuild build : builds) {
+                holdTimes.add(build.getDuration());
+                String channel = "\"channel\":\"#" + build.getProject().getName() + "\"";
+                long started = build.getStartTimeInMillis();
+                long finished = started + build.getDuration();
+                for (SlackWebhookStub.Delivery delivery : deliveries) {
+                    if (!delivery.body.contains(channel)) {
+                        continue;
+                    }
+                    // the build step posts while the build runs, the post-build notifier after it
+                    long from = delivery.body.contains("step " + build.getProject().getFullName()) ? started : finished;
+                    latencies.add(delivery.receivedAtMillis - from);
+                }
+            }
+            Collections.sort(latencies);
+            Collections.sort(holdTimes);
+        }
+
+        double successRate() {
+            return expected == 0 ? 1.0 : (double) delivered / expected;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s delivery: %d/%d notifications delivered (%.1f%%), %d requests, %d faults%n"
+                            + "  notification latency ms: p50 %d, p95 %d, max %d%n"
+                            + "  executor hold time ms:   p50 %d, p95 %d, max %d",
+                    async ? "async" : "synchronous", delivered, expected, 100 * successRate(), requests, faults,
+                    percentile(latencies, 0.5), percentile(latencies, 0.95), percentile(latencies, 1.0),
+                    percentile(holdTimes, 0.5), percentile(holdTimes, 0.95), percentile(holdTimes, 1.0));
+        }
+
+        private static long percentile(List<Long> sorted, double p) {
+            if (sorted.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(p * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.jenkinsci.plugins.slacknotifier;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for a Slack incoming web hook on the loopback interface. It answers {@code ok}
+ * after a configurable latency, and every {@code n}th request can be answered with a 429
+ * and {@code Retry-After}, a 500, or a connection closed without a response instead.
+ */
+public class SlackWebhookStub implements HttpHandler {
+
+    public enum Fault {
+        /** 429 with a {@code Retry-After} header. */
+        RATE_LIMITED,
+        /** 500 with an error body. */
+        SERVER_ERROR,
+        /** The connection is closed before any response is sent. */
+        DROP_CONNECTION
+    }
+
+    /**
+     * A post the stub accepted.
+     */
+    public static final class Delivery {
+        public final long receivedAtMillis;
+        public final String body;
+
+        Delivery(long receivedAtMillis, String body) {
+            this.receivedAtMillis = receivedAtMillis;
+            this.body = body;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService threads = Executors.newCachedThreadPool();
+    private final List<Delivery> deliveries = new ArrayList<Delivery>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong faults = new AtomicLong();
+
+    private volatile long latencyMillis;
+    private volatile int faultEvery;
+    private volatile Fault[] faultCycle = new Fault[0];
+    private volatile int retryAfterSeconds = 1;
+
+    public SlackWebhookStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        server.createContext("/", this);
+        server.setExecutor(threads);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/services/T000/B000/XXXX";
+    }
+
+    public SlackWebhookStub withLatency(long millis) {
+        this.latencyMillis = millis;
+        return this;
+    }
+
+    /**
+     * Answers every {@code n}th request with the next fault of {@code cycle} instead of {@code ok}.
+     */
+    public SlackWebhookStub withFaults(int n, Fault... cycle) {
+        this.faultCycle = cycle;
+        this.faultEvery = n;
+        return this;
+    }
+
+    public SlackWebhookStub withRetryAfter(int seconds) {
+        this.retryAfterSeconds = seconds;
+        return this;
+    }
+
+    public void handle(HttpExchange exchange) throws IOException {
+        String body = IOUtils.toString(exchange.getRequestBody(), "UTF-8");
+        long n = requests.incrementAndGet();
+        sleep(latencyMillis);
+
+        Fault[] cycle = faultCycle;
+        if (faultEvery > 0 && cycle.length > 0 && n % faultEvery == 0) {
+            Fault fault = cycle[(int) (faults.getAndIncrement() % cycle.length)];
+            switch (fault) {
+                case RATE_LIMITED:
+                    exchange.getResponseHeaders().add("Retry-After", String.valueOf(retryAfterSeconds));
+                    respond(exchange, 429, "rate_limited");
+                    return;
+                case SERVER_ERROR:
+                    respond(exchange, 500, "internal_error");
+                    return;
+                default:
+                    exchange.close();
+                    return;
+            }
+        }
+        synchronized (deliveries) {
+            deliveries.add(new Delivery(System.currentTimeMillis(), body));
+            deliveries.notifyAll();
+        }
+        respond(exchange, 200, "ok");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until at least {@code count} messages were accepted or the timeout passes.
+     *
+     * @return the accepted messages so far
+     */
+    public List<Delivery> awaitDeliveries(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (deliveries) {
+            long left;
+            while (deliveries.size() < count && (left = deadline - System.currentTimeMillis()) > 0) {
+                deliveries.wait(left);
+            }
+            return new ArrayList<Delivery>(deliveries);
+        }
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getFaultCount() {
+        return faults.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+        threads.shutdownNow();
+    }
+}
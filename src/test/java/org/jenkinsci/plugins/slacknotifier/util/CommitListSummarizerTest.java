@@ -0,0 +1,118 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import hudson.model.User;
+import hudson.scm.ChangeLogSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CommitListSummarizerTest {
+
+    /** {@link User} needs a running Jenkins. */
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    private final CommitListSummarizer summarizer = new CommitListSummarizer(
+            CommitListSummarizer.DEFAULT_MAX_COMMITS, CommitListSummarizer.DEFAULT_MAX_BYTES);
+
+    @Test
+    public void emptyChangeSet() {
+        assertEquals("No Changes.", summarizer.summarize(Collections.emptyList()));
+    }
+
+    @Test
+    public void listsCommitsInOrderAndEscapesThem() {
+        List<ChangeLogSet.Entry> commits = new ArrayList<ChangeLogSet.Entry>();
+        commits.add(commit("first", "alice"));
+        commits.add(commit("fix <b> & c", "bob"));
+        commits.add(commit("third", "alice"));
+
+        assertEquals("Changes:\n- first [alice]\n- fix &lt;b&gt; &amp; c [bob]\n- third [alice]",
+                summarizer.summarize(commits));
+    }
+
+    @Test
+    public void stopsAfterTheMaximumNumberOfCommits() {
+        List<ChangeLogSet.Entry> commits = new ArrayList<ChangeLogSet.Entry>();
+        for (int i = 0; i < 25; i++) {
+            commits.add(commit("commit " + i, "author" + (i % 3)));
+        }
+
+        String summary = summarizer.summarize(commits);
+
+        String[] lines = summary.split("\n");
+        assertEquals(1 + CommitListSummarizer.DEFAULT_MAX_COMMITS + 1, lines.length);
+        assertEquals("- commit 0 [author0]", lines[1]);
+        assertEquals("- commit 19 [author1]", lines[20]);
+        assertEquals("...and 5 more by 3 authors", lines[21]);
+    }
+
+    @Test
+    public void tailNamesASingleAuthor() {
+        List<ChangeLogSet.Entry> commits = new ArrayList<ChangeLogSet.Entry>();
+        commits.add(commit("first", "alice"));
+        commits.add(commit("second", "bob"));
+        commits.add(commit("third", "bob"));
+
+        assertEquals("Changes:\n- first [alice]\n...and 2 more by 1 author",
+                new CommitListSummarizer(1, CommitListSummarizer.DEFAULT_MAX_BYTES).summarize(commits));
+    }
+
+    @Test
+    public void stopsAtTheByteBudget() {
+        // 150 two-byte characters: 300 bytes, although only 150 chars
+        StringBuilder accents = new StringBuilder();
+        for (int i = 0; i < 150; i++) {
+            accents.append('\u00e9');
+        }
+        List<ChangeLogSet.Entry> commits = new ArrayList<ChangeLogSet.Entry>();
+        for (int i = 0; i < 15; i++) {
+            commits.add(commit((char) ('a' + i) + accents.toString(), "alice"));
+        }
+
+        String summary = summarizer.summarize(commits);
+
+        // "Changes:" is 8 bytes, each line "\n- " + 301 + " [alice]" is 312
+        String listed = summary.substring(0, summary.lastIndexOf('\n'));
+        assertTrue(SlackText.utf8Length(listed) <= CommitListSummarizer.DEFAULT_MAX_BYTES);
+        assertEquals(8 + 12 * 312, SlackText.utf8Length(listed));
+        assertTrue(summary.endsWith("\n...and 3 more by 1 author"));
+    }
+
+    @Test
+    public void duplicateCommitsAreListedOnce() {
+        List<ChangeLogSet.Entry> commits = new ArrayList<ChangeLogSet.Entry>();
+        commits.add(commit("merge", "alice"));
+        commits.add(commit("merge", "alice"));
+        commits.add(commit("other", "bob"));
+
+        assertEquals("Changes:\n- merge [alice]\n- other [bob]", summarizer.summarize(commits));
+    }
+
+    private static ChangeLogSet.Entry commit(final String message, final String author) {
+        return new ChangeLogSet.Entry() {
+            @Override
+            public String getMsg() {
+                return message;
+            }
+
+            @Override
+            public User getAuthor() {
+                return User.get(author);
+            }
+
+            @Override
+            public Collection<String> getAffectedPaths() {
+                return Collections.emptyList();
+            }
+        };
+    }
+}
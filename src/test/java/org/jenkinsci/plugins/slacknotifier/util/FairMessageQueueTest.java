@@ -0,0 +1,101 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FairMessageQueueTest {
+
+    private static final String SLOW = "https://slow.example.com/hook";
+    private static final String FAST = "https://fast.example.com/hook";
+
+    private final FairMessageQueue queue = new FairMessageQueue(100);
+    private final Busy busy = new Busy();
+
+    @Test
+    public void servesJobsRoundRobin() throws Exception {
+        queue.offer(message(SLOW, "a", "a1"));
+        queue.offer(message(SLOW, "a", "a2"));
+        queue.offer(message(SLOW, "b", "b1"));
+
+        assertEquals("a1", poll().getPayload());
+        assertEquals("b1", poll().getPayload());
+        assertEquals("a2", poll().getPayload());
+        assertNull(queue.poll(0, TimeUnit.MILLISECONDS, busy));
+    }
+
+    @Test
+    public void fullBulkheadIsPassedOverWhileOthersWait() throws Exception {
+        busy.full.add(SLOW);
+        queue.offer(message(SLOW, "a", "a1"));
+        queue.offer(message(SLOW, "a", "a2"));
+        queue.offer(message(FAST, "b", "b1"));
+
+        assertEquals("b1", poll().getPayload());
+        assertEquals(Integer.valueOf(1), busy.entered.get(FAST));
+
+        // nobody else is waiting: the full bulkhead gets the worker, in order
+        assertEquals("a1", poll().getPayload());
+        assertEquals("a2", poll().getPayload());
+        assertEquals(Integer.valueOf(2), busy.entered.get(SLOW));
+    }
+
+    @Test
+    public void jobPassedOverKeepsItsTurnAndOrder() throws Exception {
+        queue.offer(message(SLOW, "a", "a1"));
+        queue.offer(message(SLOW, "a", "a2"));
+        queue.offer(message(FAST, "b", "b1"));
+        queue.offer(message(FAST, "b", "b2"));
+
+        busy.full.add(SLOW);
+        assertEquals("b1", poll().getPayload());
+        busy.full.clear();
+
+        assertEquals("a1", poll().getPayload());
+        assertEquals("b2", poll().getPayload());
+        assertEquals("a2", poll().getPayload());
+    }
+
+    @Test
+    public void passesOverAcrossPriorities() throws Exception {
+        busy.full.add(SLOW);
+        queue.offer(message(SLOW, SlackMessage.Priority.HIGH, "a", "high"));
+        queue.offer(message(FAST, SlackMessage.Priority.LOW, "b", "low"));
+
+        assertEquals("low", poll().getPayload());
+        assertEquals("high", poll().getPayload());
+    }
+
+    private SlackMessage poll() throws InterruptedException {
+        return queue.poll(0, TimeUnit.MILLISECONDS, busy);
+    }
+
+    private static SlackMessage message(String endpoint, String job, String payload) {
+        return message(endpoint, SlackMessage.Priority.NORMAL, job, payload);
+    }
+
+    private static SlackMessage message(String endpoint, SlackMessage.Priority priority, String job, String payload) {
+        return new SlackMessage(endpoint, "#builds", payload, priority, job);
+    }
+
+    private static final class Busy implements FairMessageQueue.Bulkheads {
+        final Set<String> full = new HashSet<String>();
+        final Map<String, Integer> entered = new HashMap<String, Integer>();
+
+        public boolean isFull(String endpoint) {
+            return full.contains(endpoint);
+        }
+
+        public void enter(String endpoint) {
+            Integer count = entered.get(endpoint);
+            entered.put(endpoint, count == null ? 1 : count + 1);
+        }
+    }
+}
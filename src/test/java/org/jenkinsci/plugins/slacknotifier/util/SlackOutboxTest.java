@@ -0,0 +1,183 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SlackOutboxTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File directory;
+    private final List<SlackOutbox> opened = new ArrayList<SlackOutbox>();
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = tmp.newFolder("outbox");
+    }
+
+    @After
+    public void closeOutboxes() {
+        for (SlackOutbox outbox : opened) {
+            outbox.close();
+        }
+    }
+
+    @Test
+    public void unacknowledgedMessagesSurviveACrash() throws Exception {
+        SlackOutbox before = open();
+        SlackMessage first = append(before, "first");
+        append(before, "second");
+        append(before, "third");
+        before.ack(first.getOutboxId());
+        // no shutdown: the next run finds the segment as the crash left it
+
+        List<SlackMessage> recovered = open().recover();
+
+        assertEquals(2, recovered.size());
+        assertEquals("{\"text\":\"second\"}", recovered.get(0).getPayload());
+        assertEquals("{\"text\":\"third\"}", recovered.get(1).getPayload());
+        assertEquals("#second", recovered.get(0).getChannel());
+        assertEquals(SlackMessage.Priority.HIGH, recovered.get(0).getPriority());
+        assertEquals("job-second", recovered.get(0).getJobKey());
+    }
+
+    @Test
+    public void recoveryCompactsIntoASingleFreshSegment() throws Exception {
+        SlackOutbox before = open();
+        append(before, "first");
+        append(before, "second");
+        File[] old = directory.listFiles();
+
+        open().recover();
+
+        File[] segments = directory.listFiles();
+        assertEquals(1, segments.length);
+        assertTrue(!segments[0].getName().equals(old[0].getName()));
+    }
+
+    @Test
+    public void newIdsNeverCollideWithIdsOnDisk() throws Exception {
+        SlackOutbox before = open();
+        SlackMessage first = append(before, "first");
+        SlackMessage second = append(before, "second");
+        before.close();
+
+        SlackOutbox after = open();
+        after.recover();
+        SlackMessage third = append(after, "third");
+        assertTrue(third.getOutboxId() > second.getOutboxId());
+
+        // acknowledging the new message must not acknowledge an old one with the same id
+        after.ack(third.getOutboxId());
+        List<SlackMessage> recovered = open().recover();
+        assertEquals(2, recovered.size());
+        assertEquals("{\"text\":\"first\"}", recovered.get(0).getPayload());
+        assertEquals("{\"text\":\"second\"}", recovered.get(1).getPayload());
+        assertTrue(first.getOutboxId() != third.getOutboxId());
+    }
+
+    @Test
+    public void acknowledgedRecoveredMessagesAreNotReplayedAgain() throws Exception {
+        SlackOutbox first = open();
+        append(first, "first");
+        append(first, "second");
+
+        SlackOutbox second = open();
+        for (SlackMessage message : second.recover()) {
+            second.ack(message.getOutboxId());
+        }
+
+        assertEquals(0, open().recover().size());
+    }
+
+    @Test
+    public void closedOutboxTakesNoMoreWrites() throws Exception {
+        SlackOutbox before = open();
+        SlackMessage first = append(before, "first");
+        before.close();
+
+        before.ack(first.getOutboxId());
+        try {
+            append(before, "second");
+            fail("appended to a closed outbox");
+        } catch (IOException e) {
+            // expected
+        }
+
+        List<SlackMessage> recovered = open().recover();
+        assertEquals(1, recovered.size());
+        assertEquals("{\"text\":\"first\"}", recovered.get(0).getPayload());
+    }
+
+    @Test
+    public void recordTornByACrashIsSkipped() throws Exception {
+        SlackOutbox before = open();
+        append(before, "first");
+        append(before, "second");
+        before.close();
+
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            file.setLength(file.length() - 5);
+        } finally {
+            file.close();
+        }
+
+        List<SlackMessage> recovered = open().recover();
+        assertEquals(1, recovered.size());
+        assertEquals("{\"text\":\"first\"}", recovered.get(0).getPayload());
+    }
+
+    @Test
+    public void recordWithABadChecksumIsSkipped() throws Exception {
+        SlackOutbox before = open();
+        append(before, "first");
+        append(before, "second");
+        before.close();
+
+        File segment = directory.listFiles()[0];
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        try {
+            // a byte of the last record's payload, just before its checksum
+            long position = file.length() - 4 - 3;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        } finally {
+            file.close();
+        }
+
+        List<SlackMessage> recovered = open().recover();
+        assertEquals(1, recovered.size());
+        assertEquals("{\"text\":\"first\"}", recovered.get(0).getPayload());
+    }
+
+    private SlackOutbox open() {
+        SlackOutbox outbox = new SlackOutbox(directory);
+        opened.add(outbox);
+        return outbox;
+    }
+
+    private static SlackMessage append(SlackOutbox outbox, String text) throws IOException {
+        SlackMessage message = new SlackMessage("https://hooks.example.com/" + text, "#" + text,
+                "{\"text\":\"" + text + "\"}", SlackMessage.Priority.HIGH, "job-" + text);
+        outbox.append(message);
+        return message;
+    }
+}
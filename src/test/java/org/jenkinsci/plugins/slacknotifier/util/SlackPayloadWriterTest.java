@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link SlackPayloadWriter} produces exactly what the notifiers used to build
+ * with {@code org.json}.
+ */
+public class SlackPayloadWriterTest {
+
+    private static final String AWKWARD = "say \"hi\" \\ back\u0001\b\t\n\f\r</script> <\\/ "
+            + "\uD83D\uDE00 \u0085 \u00a0 \u2028 caf\u00e9";
+
+    @Test
+    public void plainMessage() {
+        String json = SlackPayloadWriter.begin()
+                .attachment("fallback", "good", "title", "https://ci.example.com/job/a/1/", "text", true)
+                .end("#builds", "summary");
+
+        assertEquals(message("#builds", null, "summary",
+                attachment("fallback", "good", "title", "https://ci.example.com/job/a/1/", "text", true)).toString(), json);
+    }
+
+    @Test
+    public void quotesControlCharactersAndNonBmpText() {
+        String json = SlackPayloadWriter.begin()
+                .attachment(AWKWARD, "danger", AWKWARD, AWKWARD, AWKWARD, true)
+                .end(AWKWARD, AWKWARD);
+
+        assertEquals(message(AWKWARD, null, AWKWARD,
+                attachment(AWKWARD, "danger", AWKWARD, AWKWARD, AWKWARD, true)).toString(), json);
+    }
+
+    @Test
+    public void nullFieldsAreLeftOut() {
+        String json = SlackPayloadWriter.begin()
+                .attachment(null, null, null, null, "text", false)
+                .end(null, null);
+
+        assertEquals(message(null, null, null, attachment(null, null, null, null, "text", false)).toString(), json);
+    }
+
+    @Test
+    public void emptyStrings() {
+        String json = SlackPayloadWriter.begin()
+                .attachment("", "", "", "", "", true)
+                .end("", "");
+
+        assertEquals(message("", null, "", attachment("", "", "", "", "", true)).toString(), json);
+    }
+
+    @Test
+    public void severalAttachmentsSerializedEarlier() {
+        String first = SlackPayloadWriter.attachmentJson("one", "good", null, null, AWKWARD, true);
+        String second = SlackPayloadWriter.attachmentJson("two", "danger", "t", null, null, false);
+        String json = SlackPayloadWriter.begin().rawAttachment(first).rawAttachment(second).end("#builds", "2 builds");
+
+        assertEquals(message("#builds", null, "2 builds",
+                attachment("one", "good", null, null, AWKWARD, true),
+                attachment("two", "danger", "t", null, null, false)).toString(), json);
+    }
+
+    @Test
+    public void update() {
+        String json = SlackPayloadWriter.begin()
+                .attachment("fallback", "good", null, null, "text", true)
+                .end("C024BE91L", "1401383885.000061", "summary");
+
+        assertEquals(message("C024BE91L", "1401383885.000061", "summary",
+                attachment("fallback", "good", null, null, "text", true)).toString(), json);
+    }
+
+    private static JSONObject attachment(String fallback, String color, String title, String titleLink,
+                                         String text, boolean markdown) {
+        JSONObject attachment = new JSONObject();
+        attachment.put("fallback", fallback);
+        attachment.put("color", color);
+        attachment.put("title", title);
+        attachment.put("title_link", titleLink);
+        attachment.put("text", text);
+        if (markdown) {
+            attachment.put("mrkdwn_in", new JSONArray().put("text"));
+        }
+        return attachment;
+    }
+
+    private static JSONObject message(String channel, String ts, String text, JSONObject... attachments) {
+        JSONArray array = new JSONArray();
+        for (JSONObject attachment : attachments) {
+            array.put(attachment);
+        }
+        JSONObject message = new JSONObject();
+        message.put("channel", channel);
+        message.put("ts", ts);
+        message.put("text", text);
+        message.put("username", "Jenkins");
+        message.put("icon_url", SlackPayloadWriter.ICON_URL);
+        message.put("attachments", array);
+        message.put("link_names", 1);
+        return message;
+    }
+}
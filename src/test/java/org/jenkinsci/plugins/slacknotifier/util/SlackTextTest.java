@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.slacknotifier.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SlackTextTest {
+
+    private static final String E_ACUTE = "\u00e9";
+    private static final String EMOJI = "\uD83D\uDE00";
+
+    @Test
+    public void escapesAmpersandAndAngleBrackets() {
+        assertEquals("a &amp; b &lt; c &gt; d", SlackText.escape("a & b < c > d"));
+        assertEquals("&lt;b&gt;bold&lt;/b&gt;", SlackText.escape("<b>bold</b>"));
+    }
+
+    @Test
+    public void keepsLinksAndMentions() {
+        assertEquals("see <https://ci.example.com/job/a?b=1&c=2|docs> &amp; <@U123> <#C123> <!here> <mailto:a@example.com>",
+                SlackText.escape("see <https://ci.example.com/job/a?b=1&c=2|docs> & <@U123> <#C123> <!here> <mailto:a@example.com>"));
+    }
+
+    @Test
+    public void unterminatedLinksAreEscaped() {
+        assertEquals("&lt;http://ci.example.com", SlackText.escape("<http://ci.example.com"));
+        assertEquals("&lt;http://a\n&gt;", SlackText.escape("<http://a\n>"));
+        assertEquals("&lt;", SlackText.escape("<"));
+    }
+
+    @Test
+    public void textThatNeedsNothingIsReturnedAsIs() {
+        String text = "nothing to do @here";
+        assertSame(text, SlackText.sanitize(text, 100));
+        assertNull(SlackText.escape(null));
+    }
+
+    @Test
+    public void truncatesToTheBudgetWithAnEllipsis() {
+        assertEquals("abcde...", SlackText.sanitize("abcdefghij", 8));
+        assertEquals("abcdefghij", SlackText.sanitize("abcdefghij", 10));
+    }
+
+    @Test
+    public void neverSplitsAnEscape() {
+        // "&amp;" would take the text to 7 bytes
+        assertEquals("ab...", SlackText.sanitize("ab&cd", 6));
+    }
+
+    @Test
+    public void neverSplitsALink() {
+        assertEquals("...", SlackText.sanitize("<https://ci.example.com/job/a|a> tail", 20));
+    }
+
+    @Test
+    public void countsMultibyteCharactersInBytes() {
+        String accents = E_ACUTE + E_ACUTE + E_ACUTE + E_ACUTE + E_ACUTE;
+        assertEquals(E_ACUTE + E_ACUTE + "...", SlackText.sanitize(accents, 7));
+        assertEquals(accents, SlackText.sanitize(accents, 10));
+    }
+
+    @Test
+    public void neverSplitsASurrogatePair() {
+        assertEquals("a" + EMOJI + "...", SlackText.sanitize("a" + EMOJI + EMOJI, 8));
+        assertEquals("a...", SlackText.sanitize("a" + EMOJI + EMOJI, 7));
+    }
+
+    @Test
+    public void budgetsTooSmallForTheEllipsis() {
+        assertEquals("..", SlackText.sanitize("abcdef", 2));
+        assertEquals(".", SlackText.sanitize("a&b", 1));
+        assertEquals("", SlackText.sanitize("abcdef", 0));
+        assertEquals("", SlackText.sanitize("abcdef", -1));
+        assertEquals("ab", SlackText.sanitize("ab", 2));
+    }
+
+    @Test
+    public void resultNeverExceedsTheBudget() {
+        String text = "a&b <@U123> " + E_ACUTE + EMOJI + " <not a link> <https://ci.example.com|ci> " + EMOJI + E_ACUTE;
+        for (int max = -1; max <= SlackText.utf8Length(SlackText.escape(text)) + 1; max++) {
+            String sanitized = SlackText.sanitize(text, max);
+            assertTrue(max + ": " + sanitized, SlackText.utf8Length(sanitized) <= Math.max(0, max));
+        }
+    }
+}